@@ -0,0 +1,57 @@
+package group.kibi.ei_scoring;
+
+/**
+ * A slice of a long recording that is transcribed on its own. The offsets are
+ * kept together with the transcription so that the text of a long recording
+ * can later be split back out per item.
+ */
+public class AudioChunk {
+	private int index;
+
+	//position of the chunk in the audio data of the recording, in bytes
+	private long dataOffset;
+	private long dataLength;
+
+	//position of the chunk in the recording, in milliseconds
+	private long startMillis;
+	private long endMillis;
+
+	private String transcription;
+
+	public AudioChunk(int index, long dataOffset, long dataLength, long startMillis, long endMillis) {
+		this.index = index;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getEndMillis() {
+		return endMillis;
+	}
+
+	public String getTranscription() {
+		return transcription;
+	}
+
+	public void setTranscription(String transcription) {
+		this.transcription = transcription;
+	}
+
+}
@@ -0,0 +1,128 @@
+package group.kibi.ei_scoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An index of the audio files to be transcribed, built by reading only their
+ * WAV headers. It is used to reject empty, truncated and non-WAV files before
+ * anything is uploaded, and to schedule the longest files first, so that a
+ * long file doesn't end up being transcribed alone at the end of a run.
+ */
+public class AudioIndex {
+
+	/**
+	 * The header information of one audio file.
+	 */
+	public static class Entry {
+		private File file;
+		private WavFile wav;
+
+		//why the file was rejected, or null if it is valid
+		private String problem;
+
+		Entry(File file, WavFile wav, String problem) {
+			this.file = file;
+			this.wav = wav;
+			this.problem = problem;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public WavFile getWav() {
+			return wav;
+		}
+
+		public boolean isValid() {
+			return problem == null;
+		}
+
+		public String getProblem() {
+			return problem;
+		}
+
+		public long getDurationMillis() {
+			return wav == null ? 0 : wav.getDurationMillis();
+		}
+
+		public int getSampleRate() {
+			return wav == null ? 0 : wav.getSampleRate();
+		}
+	}
+
+	private List<Entry> valid = new ArrayList<>();
+	private List<Entry> rejected = new ArrayList<>();
+
+	/**
+	 * Read the headers of the given files.
+	 * @param files the audio files
+	 * @return the index
+	 */
+	public static AudioIndex build(Collection<File> files) {
+		AudioIndex index = new AudioIndex();
+		for (File file : files) {
+			Entry entry = check(file);
+			if (entry.isValid()) {
+				index.valid.add(entry);
+			} else {
+				index.rejected.add(entry);
+			}
+		}
+
+		//longest first; ties in file name order, so the schedule is repeatable
+		index.valid.sort(Comparator.comparingLong(Entry::getDurationMillis).reversed()
+				.thenComparing(entry -> entry.getFile().getName()));
+		return index;
+	}
+
+	static Entry check(File file) {
+		if (file.length() == 0) {
+			return new Entry(file, null, "empty file");
+		}
+
+		WavFile wav;
+		try {
+			wav = WavFile.open(file);
+		} catch (IOException e) {
+			return new Entry(file, null, e.getMessage());
+		}
+
+		if (wav.getChannels() == 0 || wav.getSampleRate() <= 0 || wav.getByteRate() <= 0 || wav.getBlockAlign() == 0) {
+			return new Entry(file, wav, String.format("invalid format (%d channels, %d Hz, %d bytes/sec)",
+					wav.getChannels(), wav.getSampleRate(), wav.getByteRate()));
+		}
+		if (wav.isTruncated()) {
+			return new Entry(file, wav, "truncated, the header promises more audio than the file holds");
+		}
+		if (wav.getDataLength() == 0) {
+			return new Entry(file, wav, "no audio data");
+		}
+		return new Entry(file, wav, null);
+	}
+
+	/**
+	 * The valid files, longest first.
+	 */
+	public List<Entry> getValid() {
+		return valid;
+	}
+
+	public List<Entry> getRejected() {
+		return rejected;
+	}
+
+	public long getTotalDurationMillis() {
+		long total = 0;
+		for (Entry entry : valid) {
+			total += entry.getDurationMillis();
+		}
+		return total;
+	}
+
+}
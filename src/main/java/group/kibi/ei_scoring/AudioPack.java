@@ -0,0 +1,138 @@
+package group.kibi.ei_scoring;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several short clips of the same audio format that are uploaded as one
+ * recording, with a stretch of silence after each clip. The position of each
+ * clip in the packed recording is kept, so that the transcription of the pack
+ * can be split back out per clip.
+ */
+public class AudioPack {
+
+	/**
+	 * One clip of a pack.
+	 */
+	public static class Clip {
+		private AudioIndex.Entry entry;
+
+		//position of the clip in the audio data of the pack, in bytes
+		private long dataOffset;
+
+		//position of the clip in the packed recording, in milliseconds
+		private long startMillis;
+		private long endMillis;
+
+		private String transcription;
+
+		Clip(AudioIndex.Entry entry, long dataOffset, long startMillis, long endMillis) {
+			this.entry = entry;
+			this.dataOffset = dataOffset;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+		}
+
+		public AudioIndex.Entry getEntry() {
+			return entry;
+		}
+
+		public long getDataOffset() {
+			return dataOffset;
+		}
+
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		public long getEndMillis() {
+			return endMillis;
+		}
+
+		public String getTranscription() {
+			return transcription;
+		}
+
+		public void setTranscription(String transcription) {
+			this.transcription = transcription;
+		}
+	}
+
+	private int index;
+	private List<Clip> clips = new ArrayList<>();
+
+	//the silence after each clip, in bytes of audio data
+	private int separatorBytes;
+	private long dataLength;
+
+	AudioPack(int index, int separatorBytes) {
+		this.index = index;
+		this.separatorBytes = separatorBytes;
+	}
+
+	void add(AudioIndex.Entry entry) {
+		WavFile wav = entry.getWav();
+		long startMillis = wav.bytesToMillis(dataLength);
+		clips.add(new Clip(entry, dataLength, startMillis, startMillis + wav.getDurationMillis()));
+		dataLength += wav.getDataLength() + separatorBytes;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public List<Clip> getClips() {
+		return clips;
+	}
+
+	/**
+	 * The size of the audio data of the pack, including the silences.
+	 */
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	public long getDurationMillis() {
+		return clips.isEmpty() ? 0 : clips.get(0).getEntry().getWav().bytesToMillis(dataLength);
+	}
+
+	/**
+	 * The silence between two clips, in milliseconds.
+	 */
+	public long getSeparatorMillis() {
+		return clips.isEmpty() ? 0 : clips.get(0).getEntry().getWav().bytesToMillis(separatorBytes);
+	}
+
+	/**
+	 * A file name for the pack, as reported to the transcription service.
+	 */
+	public String getName() {
+		return "pack" + index + ".wav";
+	}
+
+	/**
+	 * Read the audio data of all clips and put it into one WAV file, with
+	 * silence after each clip.
+	 * @return the bytes of a WAV file
+	 * @throws IOException
+	 */
+	public byte[] toWav() throws IOException {
+		WavFile format = clips.get(0).getEntry().getWav();
+		//8-bit audio is unsigned, so its silence is the middle value
+		byte silence = format.getBitsPerSample() == 8 ? (byte) 0x80 : 0;
+
+		byte[] data = new byte[(int) dataLength];
+		for (Clip clip : clips) {
+			WavFile wav = clip.getEntry().getWav();
+			byte[] clipData = wav.readData(0, (int) wav.getDataLength());
+			int offset = (int) clip.getDataOffset();
+			System.arraycopy(clipData, 0, data, offset, clipData.length);
+			for (int i = offset + clipData.length; i < offset + clipData.length + separatorBytes; i++) {
+				data[i] = silence;
+			}
+		}
+		return format.toWav(data);
+	}
+
+}
@@ -0,0 +1,93 @@
+package group.kibi.ei_scoring;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pack short clips into {@link AudioPack}s, so that many of them can be
+ * transcribed with one request. Only clips of the same audio format are packed
+ * together, and a pack stays under the upload size limit.
+ *
+ * Clips longer than {@link #MAX_PACKED_CLIP_MILLIS} are not worth packing and
+ * get a pack of their own. Whisper transcribes in 30 second windows, so such
+ * clips would also make it more likely that a segment runs over into the next
+ * clip.
+ */
+public class ClipPacker {
+
+	static final long MAX_PACKED_CLIP_MILLIS = 20 * 1000;
+
+	//the silence after each clip. It has to be long enough for Whisper to end
+	//a segment in it.
+	static final long SEPARATOR_MILLIS = 2000;
+
+	private long maxPackBytes;
+	private int maxClips;
+
+	/**
+	 * @param maxPackBytes the maximum size of the audio data of a pack
+	 * @param maxClips     the maximum number of clips in a pack
+	 */
+	public ClipPacker(long maxPackBytes, int maxClips) {
+		this.maxPackBytes = maxPackBytes;
+		this.maxClips = Math.max(1, maxClips);
+	}
+
+	/**
+	 * Pack the given clips.
+	 * @param entries the valid entries of an {@link AudioIndex}
+	 * @return the packs, longest first. Every clip is in exactly one pack.
+	 */
+	public List<AudioPack> pack(List<AudioIndex.Entry> entries) {
+		List<AudioPack> packs = new ArrayList<>();
+		//the pack being filled, per audio format
+		Map<String, AudioPack> openPacks = new LinkedHashMap<>();
+
+		for (AudioIndex.Entry entry : entries) {
+			WavFile wav = entry.getWav();
+			int separatorBytes = separatorBytes(wav);
+			if (entry.getDurationMillis() > MAX_PACKED_CLIP_MILLIS
+					|| wav.getDataLength() + separatorBytes > maxPackBytes) {
+				AudioPack pack = new AudioPack(packs.size(), separatorBytes);
+				pack.add(entry);
+				packs.add(pack);
+				continue;
+			}
+
+			String format = formatOf(wav);
+			AudioPack pack = openPacks.get(format);
+			if (pack != null && (pack.getClips().size() >= maxClips
+					|| pack.getDataLength() + wav.getDataLength() + separatorBytes > maxPackBytes)) {
+				pack = null;
+			}
+			if (pack == null) {
+				pack = new AudioPack(packs.size(), separatorBytes);
+				packs.add(pack);
+				openPacks.put(format, pack);
+			}
+			pack.add(entry);
+		}
+
+		packs.sort(Comparator.comparingLong(AudioPack::getDurationMillis).reversed()
+				.thenComparingInt(AudioPack::getIndex));
+		return packs;
+	}
+
+	private static int separatorBytes(WavFile wav) {
+		long bytes = wav.getByteRate() * SEPARATOR_MILLIS / 1000;
+		return (int) (bytes - bytes % Math.max(1, wav.getBlockAlign()));
+	}
+
+	/**
+	 * Clips can only be packed together if their raw audio data can simply be
+	 * concatenated.
+	 */
+	private static String formatOf(WavFile wav) {
+		return wav.getAudioFormat() + "/" + wav.getChannels() + "/" + wav.getSampleRate() + "/"
+				+ wav.getBitsPerSample() + "/" + wav.getBlockAlign();
+	}
+
+}
@@ -0,0 +1,131 @@
+package group.kibi.ei_scoring;
+
+import java.util.Arrays;
+
+/**
+ * Decides when a slow Whisper request gets a duplicate ("hedge") request. If
+ * a request hasn't returned after the given percentile of recent latencies, a
+ * second identical request is sent and whichever returns first is used.
+ *
+ * Latencies are kept per size bucket of the upload. A 24 MB chunk of a long
+ * recording takes much longer than a 3 second clip, and with a single
+ * percentile over all requests the largest uploads would be the ones hedged.
+ *
+ * Hedges are capped at a percentage of all requests and of all uploaded bytes,
+ * so a slow service isn't flooded with duplicates exactly when it is
+ * struggling.
+ */
+public class HedgingPolicy {
+
+	//no hedging until this many latencies are known for a size bucket
+	static final int MIN_SAMPLES = 20;
+
+	//the hedge delay adapts to the most recent latencies only
+	static final int WINDOW_SIZE = 200;
+
+	//upper limits of the upload size buckets, in bytes. The last bucket holds
+	//everything larger.
+	static final long[] SIZE_BUCKET_LIMITS = { 1L * 1024 * 1024, 4L * 1024 * 1024, 16L * 1024 * 1024 };
+
+	private double percentile;
+	private double budgetPercent;
+
+	//ring buffers of recent latencies per size bucket, in milliseconds
+	private long[][] latencies = new long[SIZE_BUCKET_LIMITS.length + 1][WINDOW_SIZE];
+	private int[] samples = new int[SIZE_BUCKET_LIMITS.length + 1];
+	private int[] next = new int[SIZE_BUCKET_LIMITS.length + 1];
+
+	private long requests;
+	private long requestBytes;
+	private long hedges;
+	private long hedgedBytes;
+
+	/**
+	 * @param percentile    the latency percentile after which a hedge is
+	 *                      sent, e.g. 95
+	 * @param budgetPercent the most hedges that may be sent, as a percentage
+	 *                      of all requests and of all uploaded bytes, e.g. 5
+	 */
+	public HedgingPolicy(double percentile, double budgetPercent) {
+		if (percentile <= 0 || percentile >= 100) {
+			throw new IllegalArgumentException("Hedging percentile must be between 0 and 100, got " + percentile);
+		}
+		if (budgetPercent < 0) {
+			throw new IllegalArgumentException("Hedging budget must not be negative, got " + budgetPercent);
+		}
+		this.percentile = percentile;
+		this.budgetPercent = budgetPercent;
+	}
+
+	/**
+	 * Record that a request is about to be sent.
+	 * @param bytes the size of the upload
+	 */
+	public synchronized void recordRequest(long bytes) {
+		requests++;
+		requestBytes += Math.max(0, bytes);
+	}
+
+	/**
+	 * Record the latency of a completed request.
+	 * @param millis the latency
+	 * @param bytes  the size of the upload
+	 */
+	public synchronized void recordLatency(long millis, long bytes) {
+		int bucket = bucketOf(bytes);
+		latencies[bucket][next[bucket]] = millis;
+		next[bucket] = (next[bucket] + 1) % WINDOW_SIZE;
+		samples[bucket] = Math.min(samples[bucket] + 1, WINDOW_SIZE);
+	}
+
+	/**
+	 * How long to wait for a request before hedging it.
+	 * @param bytes the size of the upload
+	 * @return the delay in milliseconds, or -1 if there are not enough
+	 *         latencies known yet for uploads of this size to hedge at all
+	 */
+	public synchronized long getHedgeDelayMillis(long bytes) {
+		int bucket = bucketOf(bytes);
+		int count = samples[bucket];
+		if (count < MIN_SAMPLES) {
+			return -1;
+		}
+		long[] sorted = Arrays.copyOf(latencies[bucket], count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(rank, count - 1))];
+	}
+
+	/**
+	 * Take a hedge out of the budget.
+	 * @param bytes the size of the upload that would be sent again
+	 * @return whether the budget allows another hedge, both in requests and
+	 *         in bytes
+	 */
+	public synchronized boolean tryAcquireHedge(long bytes) {
+		if (hedges + 1 > requests * budgetPercent / 100
+				|| hedgedBytes + Math.max(0, bytes) > requestBytes * budgetPercent / 100) {
+			return false;
+		}
+		hedges++;
+		hedgedBytes += Math.max(0, bytes);
+		return true;
+	}
+
+	static int bucketOf(long bytes) {
+		int bucket = 0;
+		while (bucket < SIZE_BUCKET_LIMITS.length && bytes > SIZE_BUCKET_LIMITS[bucket]) {
+			bucket++;
+		}
+		return bucket;
+	}
+
+	public double getPercentile() {
+		return percentile;
+	}
+
+	public double getBudgetPercent() {
+		return budgetPercent;
+	}
+
+}
@@ -0,0 +1,295 @@
+package group.kibi.ei_scoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a TSV file through memory mapping so that it can be parsed by several
+ * threads at once. The file is split into byte ranges that start and end on
+ * line boundaries; each range can then be parsed on its own. Columns are
+ * found by scanning for tab bytes, without regular expressions.
+ *
+ * Every row keeps its index in the file (counting from 0 after the heading
+ * line), so that results computed out of order can be put back in the
+ * original order.
+ */
+public class MappedTsvReader {
+
+	//ranges are kept small enough that a few of them per thread can be in
+	//memory at once
+	static final long MAX_RANGE_BYTES = 8L * 1024 * 1024;
+
+	/**
+	 * One line of the file.
+	 */
+	public static class Row {
+		private long index;
+		private String line;
+		private String[] columns;
+
+		Row(long index, String line, String[] columns) {
+			this.index = index;
+			this.line = line;
+			this.columns = columns;
+		}
+
+		/**
+		 * The index of the row in the file, counting from 0 after the heading
+		 * line.
+		 */
+		public long getIndex() {
+			return index;
+		}
+
+		/**
+		 * The whole line, without the line terminator.
+		 */
+		public String getLine() {
+			return line;
+		}
+
+		/**
+		 * The columns of the line. As with {@code line.split("\t")}, trailing
+		 * empty columns are left out.
+		 */
+		public String[] getColumns() {
+			return columns;
+		}
+	}
+
+	/**
+	 * A byte range of the file holding whole lines.
+	 */
+	public static class Range {
+		private int index;
+		private long start;
+		private long end;
+		private long firstRowIndex;
+
+		Range(int index, long start, long end) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * The position of the range among all ranges of the file.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * The index of the first row in the range.
+		 */
+		public long getFirstRowIndex() {
+			return firstRowIndex;
+		}
+	}
+
+	private File file;
+	private String heading;
+
+	//where the rows start, after the heading line
+	private long dataStart;
+	private long size;
+
+	/**
+	 * @param file       the TSV file
+	 * @param hasHeading whether the first line is a heading line
+	 * @throws IOException
+	 */
+	public MappedTsvReader(File file, boolean hasHeading) throws IOException {
+		this.file = file;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			size = channel.size();
+			if (hasHeading && size > 0) {
+				dataStart = nextLineStart(channel, 0);
+				heading = decodeLine(map(channel, 0, dataStart));
+			}
+		}
+	}
+
+	/**
+	 * The heading line, or null if the file has none.
+	 */
+	public String getHeading() {
+		return heading;
+	}
+
+	/**
+	 * Split the rows into byte ranges aligned to line boundaries, and count the
+	 * rows of each range (in parallel) so that every range knows the index of
+	 * its first row.
+	 * @param minRanges the least number of ranges, e.g. a few per thread.
+	 *                  Large files get more ranges, so that no range is
+	 *                  larger than {@link #MAX_RANGE_BYTES}.
+	 * @param executor  runs the row counting
+	 * @return the ranges in file order
+	 * @throws IOException
+	 */
+	public List<Range> split(int minRanges, ExecutorService executor) throws IOException {
+		List<Range> ranges = new ArrayList<>();
+		long dataSize = size - dataStart;
+		if (dataSize <= 0) {
+			return ranges;
+		}
+
+		long rangeCount = Math.max(minRanges, (dataSize + MAX_RANGE_BYTES - 1) / MAX_RANGE_BYTES);
+		long targetSize = Math.max(1, dataSize / rangeCount);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long start = dataStart;
+			while (start < size) {
+				//move the cut to the start of the next line
+				long end = start + targetSize >= size ? size : nextLineStart(channel, start + targetSize - 1);
+				ranges.add(new Range(ranges.size(), start, end));
+				start = end;
+			}
+		}
+
+		List<Future<Long>> rowCounts = new ArrayList<>();
+		for (Range range : ranges) {
+			rowCounts.add(executor.submit(() -> countRows(range)));
+		}
+		long firstRowIndex = 0;
+		for (int i = 0; i < ranges.size(); i++) {
+			ranges.get(i).firstRowIndex = firstRowIndex;
+			firstRowIndex += get(rowCounts.get(i));
+		}
+		return ranges;
+	}
+
+	/**
+	 * Parse the rows of a range. Safe to call from several threads at once.
+	 * @param range a range from {@link #split(int, ExecutorService)}
+	 * @return the rows in file order
+	 * @throws IOException
+	 */
+	public List<Row> parse(Range range) throws IOException {
+		List<Row> rows = new ArrayList<>();
+		byte[] bytes = read(range);
+		long rowIndex = range.firstRowIndex;
+		int lineStart = 0;
+		while (lineStart < bytes.length) {
+			int lineEnd = lineStart;
+			List<String> columns = new ArrayList<>();
+			int columnStart = lineStart;
+			while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+				if (bytes[lineEnd] == '\t') {
+					columns.add(new String(bytes, columnStart, lineEnd - columnStart, StandardCharsets.UTF_8));
+					columnStart = lineEnd + 1;
+				}
+				lineEnd++;
+			}
+
+			//drop the '\r' of Windows line endings
+			int contentEnd = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			columns.add(new String(bytes, columnStart, Math.max(0, contentEnd - columnStart), StandardCharsets.UTF_8));
+			String line = new String(bytes, lineStart, contentEnd - lineStart, StandardCharsets.UTF_8);
+			int columnCount = columns.size();
+			while (columnCount > 1 && columns.get(columnCount - 1).isEmpty()) {
+				columnCount--;
+			}
+			rows.add(new Row(rowIndex++, line, columns.subList(0, columnCount).toArray(new String[0])));
+
+			lineStart = lineEnd + 1;
+		}
+		return rows;
+	}
+
+	private long countRows(Range range) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = map(channel, range.start, range.end - range.start);
+			long rows = 0;
+			int length = buffer.limit();
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(i) == '\n') {
+					rows++;
+				}
+			}
+			//the last line of the file may have no line terminator
+			if (length > 0 && buffer.get(length - 1) != '\n') {
+				rows++;
+			}
+			return rows;
+		}
+	}
+
+	private byte[] read(Range range) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = map(channel, range.start, range.end - range.start);
+			byte[] bytes = new byte[buffer.limit()];
+			buffer.get(bytes);
+			return bytes;
+		}
+	}
+
+	/**
+	 * Find the start of the line after the given position.
+	 * @return the position after the next '\n', or the end of the file
+	 */
+	private long nextLineStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long start, long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+	}
+
+	private static String decodeLine(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.limit()];
+		buffer.get(bytes);
+		int length = bytes.length;
+		while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) {
+			length--;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to read", e.getCause());
+		}
+	}
+
+}
@@ -15,6 +15,11 @@ public class MetaData {
         itemNumber = fileName;
     }
 
+    public MetaData(String participantId, String itemNumber) {
+        this.participantId = participantId;
+        this.itemNumber = itemNumber;
+    }
+
     public String getParticipantId() {
         return participantId;
     }
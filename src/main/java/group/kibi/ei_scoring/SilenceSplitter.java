@@ -0,0 +1,125 @@
+package group.kibi.ei_scoring;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split a long recording into chunks no larger than a given size, cutting at
+ * the quietest point near the end of each chunk so that words are not cut in
+ * half. Loudness is measured as the mean absolute amplitude of short frames.
+ */
+public class SilenceSplitter {
+
+	//length of the frames whose loudness is measured
+	static final int FRAME_MILLIS = 50;
+
+	//the loudness around a cut point is averaged over this many frames, so
+	//that a short dip in the middle of a word is not taken for a pause
+	static final int SMOOTHING_FRAMES = 6;
+
+	private long maxChunkBytes;
+
+	/**
+	 * @param maxChunkBytes the maximum size of the audio data of a chunk
+	 */
+	public SilenceSplitter(long maxChunkBytes) {
+		this.maxChunkBytes = maxChunkBytes;
+	}
+
+	/**
+	 * Split the audio data of a WAV file into chunks.
+	 * @param wav the recording
+	 * @return the chunks in order, covering all of the audio data
+	 * @throws IOException
+	 */
+	public List<AudioChunk> split(WavFile wav) throws IOException {
+		List<AudioChunk> chunks = new ArrayList<>();
+		long frameBytes = frameBytes(wav);
+		long maxFrames = maxChunkBytes / frameBytes;
+		if (maxFrames < 2) {
+			throw new IllegalArgumentException("Chunk size " + maxChunkBytes + " is too small for " + wav.getFile());
+		}
+
+		long totalFrames = (wav.getDataLength() + frameBytes - 1) / frameBytes;
+		if (totalFrames <= maxFrames) {
+			chunks.add(createChunk(wav, 0, 0, wav.getDataLength()));
+			return chunks;
+		}
+
+		double[] loudness = measureLoudness(wav, frameBytes, (int) totalFrames);
+
+		long startFrame = 0;
+		while (totalFrames - startFrame > maxFrames) {
+			// Look for the quietest frame in the second half of the longest
+			// possible chunk. Later frames win ties, so chunks stay as large as
+			// possible.
+			long cutFrame = startFrame + maxFrames;
+			double quietest = Double.MAX_VALUE;
+			for (long frame = startFrame + maxFrames; frame >= startFrame + maxFrames / 2; frame--) {
+				double level = smoothedLoudness(loudness, (int) frame);
+				if (level < quietest) {
+					quietest = level;
+					cutFrame = frame;
+				}
+			}
+
+			chunks.add(createChunk(wav, chunks.size(), startFrame * frameBytes, (cutFrame - startFrame) * frameBytes));
+			startFrame = cutFrame;
+		}
+		long lastOffset = startFrame * frameBytes;
+		chunks.add(createChunk(wav, chunks.size(), lastOffset, wav.getDataLength() - lastOffset));
+
+		return chunks;
+	}
+
+	private static long frameBytes(WavFile wav) {
+		int blockAlign = Math.max(1, wav.getBlockAlign());
+		long framesPerSecond = 1000 / FRAME_MILLIS;
+		long samplesPerFrame = Math.max(1, wav.getSampleRate() / framesPerSecond);
+		return samplesPerFrame * blockAlign;
+	}
+
+	private static AudioChunk createChunk(WavFile wav, int index, long offset, long length) {
+		return new AudioChunk(index, offset, length, wav.bytesToMillis(offset), wav.bytesToMillis(offset + length));
+	}
+
+	/**
+	 * Average loudness of the frames around a cut point, i.e. of the frames
+	 * just before and just after it.
+	 */
+	private static double smoothedLoudness(double[] loudness, int cutFrame) {
+		int from = Math.max(0, cutFrame - SMOOTHING_FRAMES / 2);
+		int to = Math.min(loudness.length, cutFrame + SMOOTHING_FRAMES / 2);
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += loudness[i];
+		}
+		return to > from ? sum / (to - from) : 0;
+	}
+
+	/**
+	 * Stream through the audio data once and measure the loudness of every
+	 * frame.
+	 */
+	private static double[] measureLoudness(WavFile wav, long frameBytes, int totalFrames) throws IOException {
+		double[] loudness = new double[totalFrames];
+		byte[] frame = new byte[(int) frameBytes];
+		try (FileInputStream file = new FileInputStream(wav.getFile());
+				InputStream in = new BufferedInputStream(file, 1 << 20)) {
+			file.getChannel().position(wav.getDataOffset());
+			long remaining = wav.getDataLength();
+			for (int i = 0; i < totalFrames; i++) {
+				int length = (int) Math.min(frameBytes, remaining);
+				in.readNBytes(frame, 0, length);
+				loudness[i] = wav.meanAmplitude(frame, 0, length);
+				remaining -= length;
+			}
+		}
+		return loudness;
+	}
+
+}
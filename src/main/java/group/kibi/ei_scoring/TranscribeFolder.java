@@ -3,7 +3,13 @@ package group.kibi.ei_scoring;
 import java.io.File;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.TrueFileFilter;
@@ -21,16 +27,53 @@ public class TranscribeFolder {
 	static Logger logger = LoggerFactory.getLogger(TranscribeFolder.class);
 	
 	public static void main(String[] args) throws IOException {
+		//Separate the options from the positional arguments.
+		List<String> arguments = new ArrayList<>();
+		HedgingPolicy hedgingPolicy = null;
+		int clipsPerPack = 1;
+		long maxChunkBytes = WhisperTranscriber.DEFAULT_MAX_CHUNK_BYTES;
+		int chunkThreads = WhisperTranscriber.DEFAULT_CHUNK_THREADS;
+		long writeTimeout = WhisperTranscriber.DEFAULT_WRITE_TIMEOUT_SECONDS;
+		long readTimeout = WhisperTranscriber.DEFAULT_READ_TIMEOUT_SECONDS;
+		long callTimeout = WhisperTranscriber.DEFAULT_CALL_TIMEOUT_SECONDS;
+		for (int i = 0; i < args.length; i++) {
+			if ("--hedge".equals(args[i]) && i + 2 < args.length) {
+				hedgingPolicy = new HedgingPolicy(Double.parseDouble(args[i + 1]), Double.parseDouble(args[i + 2]));
+				i += 2;
+			} else if ("--pack".equals(args[i]) && i + 1 < args.length) {
+				clipsPerPack = Integer.parseInt(args[i + 1]);
+				i += 1;
+			} else if ("--chunk-mb".equals(args[i]) && i + 1 < args.length) {
+				maxChunkBytes = (long) (Double.parseDouble(args[i + 1]) * 1024 * 1024);
+				i += 1;
+			} else if ("--chunk-threads".equals(args[i]) && i + 1 < args.length) {
+				chunkThreads = Integer.parseInt(args[i + 1]);
+				i += 1;
+			} else if ("--timeouts".equals(args[i]) && i + 3 < args.length) {
+				writeTimeout = Long.parseLong(args[i + 1]);
+				readTimeout = Long.parseLong(args[i + 2]);
+				callTimeout = Long.parseLong(args[i + 3]);
+				i += 3;
+			} else {
+				arguments.add(args[i]);
+			}
+		}
+
 		//Check if user pass in the folder to be transcribed.
-		if(args.length != 3) {
-			logger.info("Usage: TranscribeFolder API_KEY /path/to/audio/folder /results/folder");
+		if(arguments.size() != 3 && arguments.size() != 4) {
+			logger.info("Usage: TranscribeFolder API_KEY /path/to/audio/folder /results/folder [THREADS] "
+					+ "[--hedge PERCENTILE BUDGET_PERCENT] [--pack MAX_CLIPS_PER_REQUEST] "
+					+ "[--chunk-mb MAX_CHUNK_MB] [--chunk-threads CHUNK_THREADS] "
+					+ "[--timeouts WRITE_SECONDS READ_SECONDS CALL_SECONDS]");
 			System.exit(1);
 		}
 		
 		//get apikey
-		String apiKey = args[0];
-		String audioFolderPath = args[1];
-		String resultsFolderPath = args[2];
+		String apiKey = arguments.get(0);
+		String audioFolderPath = arguments.get(1);
+		String resultsFolderPath = arguments.get(2);
+		//number of files transcribed at the same time
+		int threads = arguments.size() == 4 ? Integer.parseInt(arguments.get(3)) : 1;
 		
 		//Check if the audio folder exists.
 		File audioFolder = new File(audioFolderPath);
@@ -51,53 +94,116 @@ public class TranscribeFolder {
 
 		}
 		
+		WhisperTranscriber whisperTranscriber = new WhisperTranscriber(apiKey);
+		//Optionally send a duplicate of requests that take unusually long.
+		whisperTranscriber.setHedgingPolicy(hedgingPolicy);
+		//Recordings larger than this are split into chunks of at most this
+		//size, and this many chunks are transcribed at the same time.
+		whisperTranscriber.setMaxChunkBytes(maxChunkBytes);
+		whisperTranscriber.setChunkThreads(chunkThreads);
+		//the defaults fit the largest chunks
+		whisperTranscriber.setTimeouts(writeTimeout, readTimeout, callTimeout);
+
 		//Run the transcription
-		createWhisperThread(apiKey, audioFolder, resultsFolder).start();
+		createWhisperThread(whisperTranscriber, audioFolder, resultsFolder, threads, clipsPerPack).start();
 
 	}
 	
 	/**
 	 * Create a separate thread to run the transcription. This allows restarting
 	 * of the thread if somehow the Whisper service throws some errors.
-	 * @param apiKey
+	 * 
+	 * Before anything is uploaded, the WAV headers of all files are read into
+	 * an {@link AudioIndex}. Files that are empty, truncated or not WAV files
+	 * are skipped, and the rest are transcribed longest first.
+	 * 
+	 * Short clips can be packed into one upload (see {@link ClipPacker}), which
+	 * saves most of the per-request overhead. The results file gets the same
+	 * rows either way.
+	 * 
+	 * Files larger than the chunk size are transcribed in chunks. Besides their
+	 * row in the results file, each chunk gets a row in a chunks file, with
+	 * its position in the recording, so that the text can later be split
+	 * back out per item.
+	 * @param whisperTranscriber
 	 * @param audioFolder
 	 * @param resultsFolder
+	 * @param threads the number of requests sent at the same time
+	 * @param clipsPerPack the maximum number of clips per request; 1 turns
+	 *                     packing off
 	 * @return
 	 */
-	private static Thread createWhisperThread(String apiKey, File audioFolder, File resultsFolder) {
+	private static Thread createWhisperThread(WhisperTranscriber whisperTranscriber, File audioFolder,
+			File resultsFolder, int threads, int clipsPerPack) {
 		
 		Iterator<File> fileIterator =
 				FileUtils.iterateFiles(audioFolder, new WildcardFileFilter("*.wav"), TrueFileFilter.INSTANCE);
 		long now = System.currentTimeMillis(); //this is used to name the results file so that it doesn't override some existing results file.
 		File resultsFile = new File(resultsFolder, "ei_transcriptions_" + now + ".tsv");
-		WhisperTranscriber whisperTranscriber = new WhisperTranscriber(apiKey);
+		File chunksFile = new File(resultsFolder, "ei_transcription_chunks_" + now + ".tsv");
 
 		Thread whisperThread = new Thread(new Runnable() {
 			@Override
 			public void run() {
 				logger.info("Creating Whisper transcribe thread to transcribe folder '{}'...", audioFolder.getAbsolutePath());
-				while(fileIterator.hasNext()) {
-					File file = fileIterator.next();
-					String fileName = file.getName();
-					logger.info("Transcribing file: " + fileName);
-
-					String transcription;
-					try {
-						transcription = whisperTranscriber.transcribe(file);
-						logger.info("\tTranscription: " + transcription);
-						String resultLine = 
-								fileName + "\t" + transcription + "\n";
-						FileUtils.write(resultsFile, resultLine, "utf-8", true);
-						
-						//remove the file once it is finished.
-//						FileUtils.delete(file);
-					} catch (IOException e) {
-						logger.error("IOException when writing results file.", e);
-					}
+
+				//preflight: read the headers of all files and reject bad ones
+				List<File> files = new ArrayList<>();
+				fileIterator.forEachRemaining(files::add);
+				AudioIndex audioIndex = AudioIndex.build(files);
+				for (AudioIndex.Entry rejected : audioIndex.getRejected()) {
+					logger.warn("Skipping file {}: {}", rejected.getFile().getName(), rejected.getProblem());
+				}
+				logger.info("{} files to transcribe ({} seconds of audio), {} files skipped.",
+						audioIndex.getValid().size(), audioIndex.getTotalDurationMillis() / 1000,
+						audioIndex.getRejected().size());
+
+				//without packing, every pack holds a single file. Packs are
+				//kept to the chunk size, so none of them would be split.
+				List<AudioPack> packs = new ClipPacker(whisperTranscriber.getMaxChunkBytes(), clipsPerPack)
+						.pack(audioIndex.getValid());
+				if (clipsPerPack > 1) {
+					logger.info("Packed {} files into {} requests.", audioIndex.getValid().size(), packs.size());
+				}
+
+				//the queue is in longest first order; every worker takes the
+				//next longest pack when it is done with its current one
+				ConcurrentLinkedQueue<AudioPack> queue = new ConcurrentLinkedQueue<>(packs);
+				ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+				for (int i = 0; i < Math.max(1, threads); i++) {
+					executor.execute(() -> {
+						AudioPack pack;
+						while ((pack = queue.poll()) != null) {
+							try {
+								if (pack.getClips().size() == 1) {
+									transcribeFile(whisperTranscriber, pack.getClips().get(0).getEntry().getFile(),
+											resultsFile, chunksFile);
+								} else {
+									transcribePack(whisperTranscriber, pack, resultsFile, chunksFile);
+								}
+							} catch (RuntimeException e) {
+								//keep the worker going with the next pack
+								logger.error("An unknown exception occurred when transcribing " 
+										+ pack.getClips().get(0).getEntry().getFile().getName(), e);
+							}
+						}
+					});
+				}
+				executor.shutdown();
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					executor.shutdownNow();
+					Thread.currentThread().interrupt();
+					return;
 				}
 				
 				//All files transcribed.
 				logger.info("Transcription completed. Results written to file: {}.", resultsFile.getAbsolutePath());
+				if (chunksFile.exists()) {
+					logger.info("Chunks of long recordings written to file: {}.", chunksFile.getAbsolutePath());
+				}
+				logger.info("Requests: {}", whisperTranscriber.getStats().getSummary());
 			}
 			
 		});
@@ -114,5 +220,84 @@ public class TranscribeFolder {
 		
 		return 	whisperThread;
 	}
+
+	/**
+	 * Transcribe one file and append the result line to the results file. A
+	 * file larger than the chunk size is transcribed in chunks, and a line per
+	 * chunk is appended to the chunks file: the file name, the chunk index, the
+	 * start and end of the chunk in milliseconds and its transcription.
+	 */
+	private static void transcribeFile(WhisperTranscriber whisperTranscriber, File file, File resultsFile,
+			File chunksFile) {
+		String fileName = file.getName();
+		logger.info("Transcribing file: " + fileName);
+
+		String transcription;
+		try {
+			if (whisperTranscriber.needsChunks(file)) {
+				List<AudioChunk> chunks = whisperTranscriber.transcribeInChunks(file);
+				transcription = WhisperTranscriber.joinTranscriptions(chunks);
+				StringBuilder chunkLines = new StringBuilder();
+				for (AudioChunk chunk : chunks) {
+					chunkLines.append(fileName + "\t" + chunk.getIndex() + "\t" + chunk.getStartMillis() + "\t"
+							+ chunk.getEndMillis() + "\t" + chunk.getTranscription() + "\n");
+				}
+				synchronized (chunksFile) {
+					FileUtils.write(chunksFile, chunkLines.toString(), "utf-8", true);
+				}
+			} else {
+				transcription = whisperTranscriber.transcribe(file);
+			}
+			logger.info("\tTranscription: " + transcription);
+			String resultLine = 
+					fileName + "\t" + transcription + "\n";
+			//several workers append to the same results file
+			synchronized (resultsFile) {
+				FileUtils.write(resultsFile, resultLine, "utf-8", true);
+			}
+			
+			//remove the file once it is finished.
+//			FileUtils.delete(file);
+		} catch (IOException e) {
+			logger.error("IOException when writing results file.", e);
+		}
+	}
+
+	/**
+	 * Transcribe a pack of clips and append a result line per clip to the
+	 * results file. If the pack can't be transcribed, the clips that didn't
+	 * get a transcription are transcribed on their own, so a failed request
+	 * doesn't lose the whole pack.
+	 */
+	private static void transcribePack(WhisperTranscriber whisperTranscriber, AudioPack pack, File resultsFile,
+			File chunksFile) {
+		logger.info("Transcribing {} clips in {}.", pack.getClips().size(), pack.getName());
+
+		try {
+			whisperTranscriber.transcribePack(pack);
+		} catch (IOException e) {
+			logger.warn("Failed to transcribe " + pack.getName() + ", transcribing its clips one by one.", e);
+		}
+
+		StringBuilder resultLines = new StringBuilder();
+		for (AudioPack.Clip clip : pack.getClips()) {
+			if (clip.getTranscription() == null) {
+				transcribeFile(whisperTranscriber, clip.getEntry().getFile(), resultsFile, chunksFile);
+				continue;
+			}
+			String fileName = clip.getEntry().getFile().getName();
+			logger.info("\tTranscription of {}: {}", fileName, clip.getTranscription());
+			resultLines.append(fileName + "\t" + clip.getTranscription() + "\n");
+		}
+
+		try {
+			//several workers append to the same results file
+			synchronized (resultsFile) {
+				FileUtils.write(resultsFile, resultLines.toString(), "utf-8", true);
+			}
+		} catch (IOException e) {
+			logger.error("IOException when writing results file.", e);
+		}
+	}
 	
 }
@@ -0,0 +1,149 @@
+package group.kibi.ei_scoring;
+
+import java.util.Arrays;
+
+/**
+ * Counts the requests a {@link WhisperTranscriber} sends and their latencies,
+ * for the summary at the end of a run. With hedging enabled it also shows
+ * what hedging cost in extra requests and uploaded audio, and how much it
+ * helped.
+ */
+public class TranscriptionStats {
+
+	private long requests;
+	private long failures;
+	private long hedges;
+	private long hedgesWon;
+	private long uploadedBytes;
+	private long hedgedBytes;
+
+	//latency of every transcription as seen by the caller, in milliseconds
+	private long[] latencies = new long[1024];
+	private int latencyCount;
+
+	//latency of the first request of every transcription, hedged or not. This
+	//is what the latencies would have been without hedging. First requests
+	//that were cancelled because their hedge won only have a lower bound: the
+	//time until they were cancelled.
+	private long[] firstRequestLatencies = new long[1024];
+	private int firstRequestCount;
+	private long cancelledFirstRequests;
+
+	public synchronized void recordRequest(long bytes) {
+		requests++;
+		uploadedBytes += Math.max(0, bytes);
+	}
+
+	public synchronized void recordHedge(long bytes) {
+		hedges++;
+		uploadedBytes += Math.max(0, bytes);
+		hedgedBytes += Math.max(0, bytes);
+	}
+
+	public synchronized void recordHedgeWon() {
+		hedgesWon++;
+	}
+
+	public synchronized void recordFailure() {
+		failures++;
+	}
+
+	public synchronized void recordLatency(long millis) {
+		if (latencyCount == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencyCount * 2);
+		}
+		latencies[latencyCount++] = millis;
+	}
+
+	/**
+	 * Record the latency of the first request of a transcription.
+	 * @param millis    the latency, or the time until the request was
+	 *                  cancelled
+	 * @param cancelled whether the request was cancelled because its hedge
+	 *                  won, so that its latency is only a lower bound
+	 */
+	public synchronized void recordFirstRequestLatency(long millis, boolean cancelled) {
+		if (cancelled) {
+			cancelledFirstRequests++;
+		}
+		if (firstRequestCount == firstRequestLatencies.length) {
+			firstRequestLatencies = Arrays.copyOf(firstRequestLatencies, firstRequestCount * 2);
+		}
+		firstRequestLatencies[firstRequestCount++] = millis;
+	}
+
+	/**
+	 * Get a latency percentile of all transcriptions so far.
+	 * @param percentile e.g. 99
+	 * @return the latency in milliseconds, or 0 if there are none
+	 */
+	public synchronized long getLatencyPercentile(double percentile) {
+		return percentile(latencies, latencyCount, percentile);
+	}
+
+	/**
+	 * Get a latency percentile of the first requests of all transcriptions so
+	 * far, i.e. what the latency would have been without hedging. First
+	 * requests that failed are not counted, and those cancelled because their
+	 * hedge won count with the time until they were cancelled, so the result
+	 * is a lower bound.
+	 * @param percentile e.g. 99
+	 * @return the latency in milliseconds, or 0 if there are none
+	 */
+	public synchronized long getFirstRequestLatencyPercentile(double percentile) {
+		return percentile(firstRequestLatencies, firstRequestCount, percentile);
+	}
+
+	private static long percentile(long[] values, int count, double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(rank, count - 1))];
+	}
+
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	public synchronized long getHedges() {
+		return hedges;
+	}
+
+	public synchronized long getHedgesWon() {
+		return hedgesWon;
+	}
+
+	public synchronized long getCancelledFirstRequests() {
+		return cancelledFirstRequests;
+	}
+
+	/**
+	 * A one-paragraph summary of the requests for the end of a run.
+	 */
+	public synchronized String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format("%d requests, %d failed. Latency p50 %d ms, p95 %d ms, p99 %d ms, max %d ms.",
+				requests, failures, getLatencyPercentile(50), getLatencyPercentile(95), getLatencyPercentile(99),
+				getLatencyPercentile(100)));
+		summary.append(String.format(" Uploaded %.1f MB.", uploadedBytes / (1024.0 * 1024)));
+		if (hedges > 0) {
+			summary.append(String.format(" Hedged %d requests (%.1f%%), %d hedges won.",
+					hedges, 100.0 * hedges / Math.max(1, requests), hedgesWon));
+			summary.append(String.format(" Without hedging: p50 %d ms, p95 %d ms, p99 %d ms, max %d ms",
+					getFirstRequestLatencyPercentile(50), getFirstRequestLatencyPercentile(95),
+					getFirstRequestLatencyPercentile(99), getFirstRequestLatencyPercentile(100)));
+			if (cancelledFirstRequests > 0) {
+				summary.append(String.format(" or more (%d first requests were cancelled when their hedge won)",
+						cancelledFirstRequests));
+			}
+			summary.append(".");
+			summary.append(String.format(" Hedging cost %.1f MB (%.1f%%) extra upload.", hedgedBytes / (1024.0 * 1024),
+					100.0 * hedgedBytes / Math.max(1, uploadedBytes - hedgedBytes)));
+		}
+		return summary.toString();
+	}
+
+}
@@ -0,0 +1,288 @@
+package group.kibi.ei_scoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A minimal reader for RIFF/WAVE files. Only the header is parsed when the
+ * file is opened; the audio data (the 'data' chunk) is read on demand, so
+ * long recordings do not have to be loaded into memory at once.
+ */
+public class WavFile {
+
+	//size of the canonical WAV header we write for audio cut out of a file
+	static final int HEADER_SIZE = 44;
+
+	//how much of the file is mapped at a time while looking for the header
+	//chunks, and the most of a chunk that needs to be inside the window
+	static final int HEADER_WINDOW = 64 * 1024;
+	static final int FORMAT_CHUNK_MAX = 8 + 40;
+
+	static final int FORMAT_PCM = 1;
+	static final int FORMAT_IEEE_FLOAT = 3;
+	static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+	private File file;
+	private int audioFormat;
+	private int channels;
+	private int sampleRate;
+	private int byteRate;
+	private int blockAlign;
+	private int bitsPerSample;
+
+	//where the audio data starts in the file and how long it is, in bytes
+	private long dataOffset;
+	private long dataLength;
+
+	//the length of the audio data according to the header. If it is larger
+	//than what is in the file, the file is truncated.
+	private long declaredDataLength;
+
+	private WavFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Parse the header of a WAV file. The header is read through a
+	 * memory-mapped window at the start of the file, so only the pages holding
+	 * the header are actually read, no matter how long the recording is.
+	 * @param file the WAV file
+	 * @return the parsed WAV file
+	 * @throws IOException if the file cannot be read or is not a WAV file
+	 */
+	public static WavFile open(File file) throws IOException {
+		WavFile wav = new WavFile(file);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException(String.format("File too short (%d bytes) to be a WAV file: %s", size,
+						file.getAbsolutePath()));
+			}
+
+			long windowStart = 0;
+			ByteBuffer window = map(channel, windowStart, size);
+			if (!"RIFF".equals(fourCC(window, 0)) || !"WAVE".equals(fourCC(window, 8))) {
+				throw new IOException("Not a RIFF/WAVE file: " + file.getAbsolutePath());
+			}
+
+			//walk the chunks until both 'fmt ' and 'data' are found
+			boolean foundFormat = false;
+			long position = 12;
+			while (position + 8 <= size) {
+				// Chunks before 'data' (e.g. 'LIST' metadata) are usually small,
+				// but if one reaches past the window, map a new window at the
+				// next chunk.
+				if (position + FORMAT_CHUNK_MAX > windowStart + window.limit()) {
+					windowStart = position;
+					window = map(channel, windowStart, size);
+				}
+				int offset = (int) (position - windowStart);
+				String chunkId = fourCC(window, offset);
+				long chunkSize = window.getInt(offset + 4) & 0xFFFFFFFFL;
+
+				if ("fmt ".equals(chunkId)) {
+					if (chunkSize < 16 || offset + 8 + 16 > window.limit()) {
+						throw new IOException("Malformed 'fmt ' chunk in " + file.getAbsolutePath());
+					}
+					int fmt = offset + 8;
+					wav.audioFormat = window.getShort(fmt) & 0xFFFF;
+					//WAVE_FORMAT_EXTENSIBLE keeps the actual format code in
+					//the first two bytes of the sub-format GUID
+					if (wav.audioFormat == FORMAT_EXTENSIBLE && chunkSize >= 26 && fmt + 26 <= window.limit()) {
+						wav.audioFormat = window.getShort(fmt + 24) & 0xFFFF;
+					}
+					wav.channels = window.getShort(fmt + 2) & 0xFFFF;
+					wav.sampleRate = window.getInt(fmt + 4);
+					wav.byteRate = window.getInt(fmt + 8);
+					wav.blockAlign = window.getShort(fmt + 12) & 0xFFFF;
+					wav.bitsPerSample = window.getShort(fmt + 14) & 0xFFFF;
+					foundFormat = true;
+				} else if ("data".equals(chunkId)) {
+					if (!foundFormat) {
+						throw new IOException("'data' chunk before 'fmt ' chunk in " + file.getAbsolutePath());
+					}
+					wav.dataOffset = position + 8;
+					wav.declaredDataLength = chunkSize;
+					//some recorders leave the size at 0xFFFFFFFF when
+					//streaming; the audio data then runs to the end of the
+					//file. Otherwise never trust the size beyond the end of
+					//the file. A size of 0 means an empty recording, or one
+					//whose header was never finished, and is taken as is.
+					wav.dataLength = isUnknownLength(chunkSize) ? size - wav.dataOffset
+							: Math.min(chunkSize, size - wav.dataOffset);
+					wav.dataLength -= wav.dataLength % Math.max(1, wav.blockAlign);
+					return wav;
+				}
+
+				//chunks are padded to an even number of bytes
+				position += 8 + chunkSize + (chunkSize & 1);
+			}
+		}
+		throw new IOException("No audio data found in " + file.getAbsolutePath());
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		long length = Math.min(HEADER_WINDOW, size - position);
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static String fourCC(ByteBuffer buffer, int offset) {
+		byte[] id = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			id[i] = buffer.get(offset + i);
+		}
+		return new String(id, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Read a slice of the audio data.
+	 * @param offset the offset in bytes, relative to the start of the audio data
+	 * @param length the number of bytes to read
+	 * @return the raw audio bytes
+	 * @throws IOException
+	 */
+	public byte[] readData(long offset, int length) throws IOException {
+		byte[] data = new byte[length];
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			in.seek(dataOffset + offset);
+			in.readFully(data);
+		}
+		return data;
+	}
+
+	/**
+	 * Wrap raw audio data in the format of this file into a complete WAV file,
+	 * e.g. for uploading a slice of a long recording on its own.
+	 * @param data raw audio bytes in the format of this file
+	 * @return the bytes of a WAV file
+	 */
+	public byte[] toWav(byte[] data) {
+		ByteBuffer wav = ByteBuffer.allocate(HEADER_SIZE + data.length).order(ByteOrder.LITTLE_ENDIAN);
+		wav.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+		wav.putInt(36 + data.length);
+		wav.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+		wav.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+		wav.putInt(16);
+		wav.putShort((short) audioFormat);
+		wav.putShort((short) channels);
+		wav.putInt(sampleRate);
+		wav.putInt(byteRate);
+		wav.putShort((short) blockAlign);
+		wav.putShort((short) bitsPerSample);
+		wav.put("data".getBytes(StandardCharsets.US_ASCII));
+		wav.putInt(data.length);
+		wav.put(data);
+		return wav.array();
+	}
+
+	/**
+	 * Mean absolute amplitude of a slice of raw audio data, normalized to
+	 * 0-1. Used as a cheap loudness measure to find silences.
+	 * @param data raw audio bytes in the format of this file
+	 * @param offset start of the slice in the array
+	 * @param length length of the slice
+	 * @return the mean absolute amplitude
+	 */
+	public double meanAmplitude(byte[] data, int offset, int length) {
+		int bytesPerSample = Math.max(1, bitsPerSample / 8);
+		int samples = length / bytesPerSample;
+		if (samples == 0) {
+			return 0;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+		double sum = 0;
+		for (int i = 0; i < samples; i++) {
+			int position = offset + i * bytesPerSample;
+			double sample;
+			switch (bytesPerSample) {
+			case 1: //8-bit audio is unsigned
+				sample = ((data[position] & 0xFF) - 128) / 128.0;
+				break;
+			case 2:
+				sample = buffer.getShort(position) / 32768.0;
+				break;
+			case 3:
+				sample = ((data[position] & 0xFF) | ((data[position + 1] & 0xFF) << 8) | (data[position + 2] << 16))
+						/ 8388608.0;
+				break;
+			default:
+				sample = isFloat() ? buffer.getFloat(position) : buffer.getInt(position) / 2147483648.0;
+				break;
+			}
+			sum += Math.abs(sample);
+		}
+		return sum / samples;
+	}
+
+	private boolean isFloat() {
+		return audioFormat == FORMAT_IEEE_FLOAT;
+	}
+
+	/**
+	 * Convert a length of audio data in bytes to milliseconds.
+	 */
+	public long bytesToMillis(long bytes) {
+		return byteRate == 0 ? 0 : bytes * 1000 / byteRate;
+	}
+
+	public long getDurationMillis() {
+		return bytesToMillis(dataLength);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getAudioFormat() {
+		return audioFormat;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getByteRate() {
+		return byteRate;
+	}
+
+	public int getBlockAlign() {
+		return blockAlign;
+	}
+
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * Whether the header promises more audio data than the file holds. A data
+	 * length of 0xFFFFFFFF is what streaming recorders write when they don't
+	 * know the length yet, so that doesn't count.
+	 */
+	public boolean isTruncated() {
+		return !isUnknownLength(declaredDataLength) && declaredDataLength > file.length() - dataOffset;
+	}
+
+	private static boolean isUnknownLength(long declaredLength) {
+		return declaredLength == 0xFFFFFFFFL;
+	}
+
+}
@@ -2,10 +2,23 @@ package group.kibi.ei_scoring;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.Gson;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
@@ -21,8 +34,37 @@ public class WhisperTranscriber {
 
 	static final MediaType MEDIA_TYPE_WAV = MediaType.parse("audio/wav");
 	static final String WHISPER_SERVICE_URL = "https://api.openai.com/v1/audio/transcriptions";
+
+	// The Whisper service rejects uploads larger than 25 MB. Long recordings
+	// are cut into chunks somewhat below that, leaving room for the WAV header
+	// and the multipart form data.
+	static final long MAX_UPLOAD_BYTES = 25L * 1024 * 1024;
+	static final long DEFAULT_MAX_CHUNK_BYTES = 24L * 1024 * 1024;
+	static final int DEFAULT_CHUNK_THREADS = 4;
+	static final int MAX_CONCURRENT_REQUESTS = 64;
+
+	// How much of a segment of a packed recording has to overlap a clip to
+	// count as part of it. Whisper's timestamps are not exact, so a segment
+	// may reach a little into the silence around its clip.
+	static final long MIN_SEGMENT_OVERLAP_MILLIS = 250;
+
+	// OkHttp's default read and write timeouts of 10 seconds are far too short
+	// for a chunk of 24 MB, which is over 12 minutes of 16 kHz audio. The
+	// service answers only once the whole chunk is transcribed, so the read
+	// timeout has to cover the transcription, and the call timeout caps the
+	// upload and the transcription together.
+	static final long DEFAULT_WRITE_TIMEOUT_SECONDS = 120;
+	static final long DEFAULT_READ_TIMEOUT_SECONDS = 300;
+	static final long DEFAULT_CALL_TIMEOUT_SECONDS = 600;
+
 	String apiKey;
 
+	long maxChunkBytes = DEFAULT_MAX_CHUNK_BYTES;
+	int chunkThreads = DEFAULT_CHUNK_THREADS;
+
+	HedgingPolicy hedgingPolicy;
+	TranscriptionStats stats = new TranscriptionStats();
+
 	OkHttpClient mOkHttpClient;
 
 	public WhisperTranscriber(String apiKey) {
@@ -30,12 +72,235 @@ public class WhisperTranscriber {
 		this.apiKey = apiKey;
 		// Initialize an HTTP client, which will be used to access the Whisper
 		// service. The client can be reused, so initialize it in constructor.
-		mOkHttpClient = new OkHttpClient().newBuilder().connectTimeout(15, TimeUnit.SECONDS).build();
+		// Requests are sent asynchronously, and OkHttp's dispatcher allows only
+		// 5 concurrent requests per host by default, which parallel chunks and
+		// hedge requests would quickly queue up behind. Its threads are daemon
+		// threads, so idle ones don't keep the JVM alive at the end of a run.
+		Dispatcher dispatcher = new Dispatcher(Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "whisper-request");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		dispatcher.setMaxRequests(MAX_CONCURRENT_REQUESTS);
+		dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_REQUESTS);
+		mOkHttpClient = new OkHttpClient().newBuilder().connectTimeout(15, TimeUnit.SECONDS)
+				.writeTimeout(DEFAULT_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.readTimeout(DEFAULT_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.callTimeout(DEFAULT_CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.dispatcher(dispatcher).build();
 	}
 
 	public String transcribe(File audioFile) throws IOException {
 		System.out.println("Transcribing file: " + audioFile.getAbsolutePath());
 
+		// Files over the chunk size (at most the upload limit) are split into
+		// chunks, and the chunks are transcribed instead.
+		if (needsChunks(audioFile)) {
+			return joinTranscriptions(transcribeInChunks(audioFile));
+		}
+
+		return transcribe(audioFile.getName(), RequestBody.create(audioFile, MEDIA_TYPE_WAV));
+	}
+
+	/**
+	 * Whether a file is larger than the chunk size, so that
+	 * {@link #transcribe(File)} splits it into chunks. With the default chunk
+	 * size these are the files over the upload limit; a smaller chunk size
+	 * also splits long recordings that could be uploaded in one request, so
+	 * that their chunks are transcribed in parallel.
+	 * @see #setMaxChunkBytes(long)
+	 */
+	public boolean needsChunks(File audioFile) {
+		return audioFile.length() > maxChunkBytes;
+	}
+
+	/**
+	 * Transcribe a long recording by splitting it at silences into chunks no
+	 * larger than the chunk size and transcribing the chunks in parallel.
+	 * @param audioFile a WAV file
+	 * @return the chunks in order, each with its offsets in the recording and
+	 *         its transcription
+	 * @throws IOException
+	 */
+	public List<AudioChunk> transcribeInChunks(File audioFile) throws IOException {
+		WavFile wav = WavFile.open(audioFile);
+		List<AudioChunk> chunks = new SilenceSplitter(maxChunkBytes).split(wav);
+		System.out.println(String.format("Split '%s' into %d chunks.", audioFile.getName(), chunks.size()));
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(chunkThreads, chunks.size())));
+		try {
+			List<Future<String>> futures = new ArrayList<>();
+			for (AudioChunk chunk : chunks) {
+				futures.add(executor.submit(() -> {
+					byte[] audio = wav.toWav(wav.readData(chunk.getDataOffset(), (int) chunk.getDataLength()));
+					String chunkName = audioFile.getName().replaceAll("\\.wav$", "") + "_chunk" + chunk.getIndex() + ".wav";
+					return transcribe(chunkName, RequestBody.create(audio, MEDIA_TYPE_WAV));
+				}));
+			}
+
+			//wait for the chunks in order, so the first failure is reported
+			for (int i = 0; i < chunks.size(); i++) {
+				chunks.get(i).setTranscription(futures.get(i).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while transcribing " + audioFile.getAbsolutePath(), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to transcribe " + audioFile.getAbsolutePath(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Stitch the transcriptions of the chunks of a recording back together.
+	 */
+	public static String joinTranscriptions(List<AudioChunk> chunks) {
+		StringBuilder text = new StringBuilder();
+		for (AudioChunk chunk : chunks) {
+			String transcription = chunk.getTranscription() == null ? "" : chunk.getTranscription().trim();
+			if (!transcription.isEmpty()) {
+				if (text.length() > 0) {
+					text.append(' ');
+				}
+				text.append(transcription);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Transcribe a pack of short clips with one request, and split the
+	 * transcription back out per clip by the timestamps of its segments. Clips
+	 * whose text can't be told apart, because a segment runs over from one clip
+	 * into the next, are transcribed again on their own.
+	 * @param pack the clips
+	 * @return the clips of the pack, each with its transcription
+	 * @throws IOException if a request fails. Clips that were transcribed
+	 *                     before the failure keep their transcription; the
+	 *                     others have none.
+	 */
+	public List<AudioPack.Clip> transcribePack(AudioPack pack) throws IOException {
+		List<AudioPack.Clip> clips = pack.getClips();
+		if (clips.size() == 1) {
+			clips.get(0).setTranscription(transcribe(clips.get(0).getEntry().getFile()));
+			return clips;
+		}
+
+		System.out.println(String.format("Transcribing %d clips as %s (%d ms).", clips.size(), pack.getName(),
+				pack.getDurationMillis()));
+		WhisperResponse response = send(pack.getName(), RequestBody.create(pack.toWav(), MEDIA_TYPE_WAV), true);
+		List<AudioPack.Clip> unclear = assignSegments(pack, response.getSegments());
+		for (AudioPack.Clip clip : unclear) {
+			System.out.println(String.format("Could not split out the text of '%s', transcribing it on its own.",
+					clip.getEntry().getFile().getName()));
+			clip.setTranscription(transcribe(clip.getEntry().getFile()));
+		}
+		return clips;
+	}
+
+	/**
+	 * Set the transcription of each clip of a pack from the segments of the
+	 * pack's transcription. A segment belongs to the clip it overlaps. A
+	 * segment that lies entirely in a silence between clips is dropped: Whisper
+	 * tends to make up text like "Thank you." for silence, and it must not end
+	 * up in a clip's transcription.
+	 * @param pack     the clips
+	 * @param segments the segments, with times in seconds from the start of the
+	 *                 pack
+	 * @return the clips whose text could not be split out, because a segment
+	 *         overlaps more than one clip
+	 */
+	static List<AudioPack.Clip> assignSegments(AudioPack pack, List<Segment> segments) {
+		List<AudioPack.Clip> clips = pack.getClips();
+		if (segments == null) {
+			return new ArrayList<>(clips);
+		}
+
+		List<StringBuilder> texts = new ArrayList<>();
+		boolean[] unclear = new boolean[clips.size()];
+		for (int i = 0; i < clips.size(); i++) {
+			texts.add(new StringBuilder());
+		}
+
+		for (Segment segment : segments) {
+			long start = Math.round(segment.getStart() * 1000);
+			long end = Math.round(segment.getEnd() * 1000);
+
+			List<Integer> overlapping = new ArrayList<>();
+			//a segment shorter than the minimum overlap belongs to the clip it
+			//overlaps most
+			int mostOverlapped = -1;
+			long mostOverlap = 0;
+			for (int i = 0; i < clips.size(); i++) {
+				AudioPack.Clip clip = clips.get(i);
+				long overlap = Math.min(end, clip.getEndMillis()) - Math.max(start, clip.getStartMillis());
+				if (overlap > MIN_SEGMENT_OVERLAP_MILLIS) {
+					overlapping.add(i);
+				}
+				if (overlap > mostOverlap) {
+					mostOverlap = overlap;
+					mostOverlapped = i;
+				}
+			}
+
+			if (overlapping.size() > 1) {
+				for (int i : overlapping) {
+					unclear[i] = true;
+				}
+				continue;
+			}
+			int owner = overlapping.isEmpty() ? mostOverlapped : overlapping.get(0);
+			if (owner < 0) {
+				//only silence under the segment
+				continue;
+			}
+			String text = segment.getText() == null ? "" : segment.getText().trim();
+			if (!text.isEmpty()) {
+				if (texts.get(owner).length() > 0) {
+					texts.get(owner).append(' ');
+				}
+				texts.get(owner).append(text);
+			}
+		}
+
+		List<AudioPack.Clip> unclearClips = new ArrayList<>();
+		for (int i = 0; i < clips.size(); i++) {
+			if (unclear[i]) {
+				unclearClips.add(clips.get(i));
+			} else {
+				clips.get(i).setTranscription(texts.get(i).toString());
+			}
+		}
+		return unclearClips;
+	}
+
+	/**
+	 * Send one audio upload to the Whisper service.
+	 * @param fileName the file name reported to the service
+	 * @param audio the audio data
+	 * @return the transcription
+	 * @throws IOException
+	 */
+	private String transcribe(String fileName, RequestBody audio) throws IOException {
+		return send(fileName, audio, false).getText();
+	}
+
+	/**
+	 * Send one audio upload to the Whisper service.
+	 * @param fileName     the file name reported to the service
+	 * @param audio        the audio data
+	 * @param withSegments whether to ask for the segments of the transcription
+	 *                     with their timestamps
+	 * @return the parsed response
+	 * @throws IOException
+	 */
+	private WhisperResponse send(String fileName, RequestBody audio, boolean withSegments) throws IOException {
 		// Construct the request body, which sets the parameters for our
 		// transcription needs. In the request body, we need to provide Whisper
 		// with the file we want it to transcribe, as well as the ASR model to
@@ -43,9 +308,14 @@ public class WhisperTranscriber {
 		// available. We can optionally also set the other parameters according
 		// to the API reference at:
 		// https://platform.openai.com/docs/api-reference/audio/createTranscription
-		RequestBody requestBody = new MultipartBody.Builder().setType(MultipartBody.FORM)
-				.addFormDataPart("model", "whisper-1").addFormDataPart("language", "en")
-				.addFormDataPart("file", audioFile.getName(), RequestBody.create(audioFile, MEDIA_TYPE_WAV)).build();
+		MultipartBody.Builder formBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM)
+				.addFormDataPart("model", "whisper-1").addFormDataPart("language", "en");
+		// The 'verbose_json' format adds the segments of the transcription,
+		// with their start and end times, to the plain 'json' format.
+		if (withSegments) {
+			formBuilder.addFormDataPart("response_format", "verbose_json");
+		}
+		RequestBody requestBody = formBuilder.addFormDataPart("file", fileName, audio).build();
 
 		// Create the HTTP request, which requires authentication. So we need to
 		// send a request with the 'Authorization' header, whose value is set to
@@ -58,25 +328,243 @@ public class WhisperTranscriber {
 				.post(requestBody) // send a POST request
 				.build();
 
-		//Execute the request with the HTTP client. The transcription will be
-		//returned in a Response object, which consists of response status code
-		//telling whether the request was successful or not and a response body
-		//with the returned data.
-		try (Response response = mOkHttpClient.newCall(request).execute()) {
-			if (!response.isSuccessful()) {
-				throw new IOException("Unexpected response code " + response);
+		//Execute the request with the HTTP client, and get the response body,
+		//which contains the transcription in json format.
+		String responseBody = execute(request, contentLength(audio));
+
+		//Convert the json format to a java object for easy extraction of
+		//the transcription.
+		return new Gson().fromJson(responseBody, WhisperResponse.class);
+	}
+
+	private static long contentLength(RequestBody body) {
+		try {
+			return body.contentLength();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Execute a request with the HTTP client. The transcription will be
+	 * returned in a Response object, which consists of response status code
+	 * telling whether the request was successful or not and a response body
+	 * with the returned data.
+	 * 
+	 * If a hedging policy is set and the request takes longer than the hedge
+	 * delay, a duplicate request is sent and the body of whichever response
+	 * comes back first is returned. The request that loses is cancelled, so a
+	 * hedge costs at most one extra upload. If the hedge wins, the first
+	 * request's latency is only known to be at least the time until it was
+	 * cancelled; that lower bound is recorded. The hedge delay is a
+	 * percentile, and the bound is already above it, so it still counts on the
+	 * right side of the percentile. Recording the shortened time of the hedged
+	 * request instead would lower the very percentile that triggers hedging.
+	 * @param request the request
+	 * @param bytes   the size of the uploaded audio, for the hedging policy
+	 *                and the statistics
+	 * @return the response body
+	 * @throws IOException if the request (and its hedge, if any) failed
+	 */
+	String execute(Request request, long bytes) throws IOException {
+		long start = System.nanoTime();
+		stats.recordRequest(bytes);
+		if (hedgingPolicy != null) {
+			hedgingPolicy.recordRequest(bytes);
+		}
+
+		Race race = new Race(start, bytes);
+		Call primary = mOkHttpClient.newCall(request);
+		enqueue(primary, race, false);
+		Call hedge = null;
+
+		try {
+			long hedgeDelay = hedgingPolicy == null ? -1 : hedgingPolicy.getHedgeDelayMillis(bytes);
+			if (hedgeDelay >= 0) {
+				try {
+					return finish(race.result.get(hedgeDelay, TimeUnit.MILLISECONDS), start);
+				} catch (TimeoutException e) {
+					if (hedgingPolicy.tryAcquireHedge(bytes)) {
+						System.out.println(String.format("No response after %d ms, sending a hedge request.", hedgeDelay));
+						stats.recordHedge(bytes);
+						race.pending.incrementAndGet();
+						hedge = mOkHttpClient.newCall(request);
+						enqueue(hedge, race, true);
+					}
+				}
+			}
+			return finish(race.result.get(), start);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for " + request.url(), e);
+		} catch (ExecutionException e) {
+			stats.recordFailure();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Request to " + request.url() + " failed", e.getCause());
+		} finally {
+			//cancel whichever request lost the race; no-op for finished calls
+			if (race.hedgeWon) {
+				stats.recordHedgeWon();
+				if (race.primaryFinished.compareAndSet(false, true)) {
+					recordFirstRequestLatency(race, System.nanoTime(), true);
+				}
 			}
+			primary.cancel();
+			if (hedge != null) {
+				hedge.cancel();
+			}
+		}
+	}
+
+	private String finish(String responseBody, long start) {
+		stats.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return responseBody;
+	}
+
+	/**
+	 * The state shared by a request and its hedge.
+	 */
+	private static class Race {
+		final long start;
+		final long bytes;
+
+		//completed by the first successful response
+		final CompletableFuture<String> result = new CompletableFuture<>();
+
+		//number of sent requests that haven't failed yet
+		final AtomicInteger pending = new AtomicInteger(1);
+
+		//whether the first request's latency was recorded, either when it
+		//returned or when it was cancelled
+		final AtomicBoolean primaryFinished = new AtomicBoolean();
+
+		//set together with the result, so the caller sees it as soon as it
+		//gets the result
+		volatile boolean hedgeWon;
+
+		Race(long start, long bytes) {
+			this.start = start;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Complete the result with a response, unless another request already
+		 * did.
+		 */
+		synchronized void complete(String body, boolean isHedge) {
+			if (!result.isDone()) {
+				hedgeWon = isHedge;
+				result.complete(body);
+			}
+		}
+	}
+
+	/**
+	 * Send a request asynchronously. The first successful response completes
+	 * the result; the result only fails once all sent requests have failed.
+	 * The latency of a successful first request goes to the hedging policy
+	 * and the statistics.
+	 */
+	private void enqueue(Call call, Race race, boolean isHedge) {
+		call.enqueue(new Callback() {
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (response) {
+					if (!response.isSuccessful()) {
+						onFailure(call, new IOException("Unexpected response code " + response));
+						return;
+					}
+					String body = response.body().string();
+					long now = System.nanoTime();
+					if (!isHedge && race.primaryFinished.compareAndSet(false, true)) {
+						recordFirstRequestLatency(race, now, false);
+					}
+					race.complete(body, isHedge);
+				} catch (IOException e) {
+					onFailure(call, e);
+				}
+			}
+
+			@Override
+			public void onFailure(Call call, IOException e) {
+				//a failed first request has no latency to record
+				if (!isHedge) {
+					race.primaryFinished.set(true);
+				}
+				if (race.pending.decrementAndGet() == 0) {
+					race.result.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+	private void recordFirstRequestLatency(Race race, long now, boolean cancelled) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(now - race.start);
+		stats.recordFirstRequestLatency(millis, cancelled);
+		if (hedgingPolicy != null) {
+			hedgingPolicy.recordLatency(millis, race.bytes);
+		}
+	}
+
+	/**
+	 * Send a duplicate of requests that are slower than usual, see
+	 * {@link HedgingPolicy}. Null, the default, turns hedging off.
+	 */
+	public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+		this.hedgingPolicy = hedgingPolicy;
+	}
 
-			//Get the response body, which contains the transcription in json format.
-			String responseBody = response.body().string();
+	/**
+	 * Set the timeouts of a request. The defaults fit the largest chunk; a
+	 * slow connection may need longer ones, and with small chunks shorter ones
+	 * let a stuck request fail (and be retried by the caller) sooner.
+	 * @param writeSeconds the longest wait for the upload to make progress
+	 * @param readSeconds  the longest wait for the response to make progress,
+	 *                     including the transcription itself
+	 * @param callSeconds  the longest a whole request may take; 0 for no limit
+	 */
+	public void setTimeouts(long writeSeconds, long readSeconds, long callSeconds) {
+		if (writeSeconds <= 0 || readSeconds <= 0 || callSeconds < 0) {
+			throw new IllegalArgumentException(String.format("Invalid timeouts: write %d s, read %d s, call %d s",
+					writeSeconds, readSeconds, callSeconds));
+		}
+		//the new client shares the dispatcher and connection pool of the old one
+		mOkHttpClient = mOkHttpClient.newBuilder().writeTimeout(writeSeconds, TimeUnit.SECONDS)
+				.readTimeout(readSeconds, TimeUnit.SECONDS).callTimeout(callSeconds, TimeUnit.SECONDS).build();
+	}
+
+	/**
+	 * Statistics of all requests sent so far, for the summary of a run.
+	 */
+	public TranscriptionStats getStats() {
+		return stats;
+	}
 
-			//Convert the json format to a java object for easy extraction of
-			//the transcription.
-			WhisperResponse whisperResponse = new Gson().fromJson(responseBody, WhisperResponse.class);
-			
-			//Everything's OK. Return the transcription.
-			return whisperResponse.getText();
+	/**
+	 * Set the maximum size of the audio data of one chunk of a long recording.
+	 * Every file larger than this is split, so smaller chunks give more
+	 * requests that run in parallel. The size can't be raised above the
+	 * default, which is just under the upload limit.
+	 */
+	public void setMaxChunkBytes(long maxChunkBytes) {
+		if (maxChunkBytes <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive, got " + maxChunkBytes);
 		}
+		this.maxChunkBytes = Math.min(maxChunkBytes, DEFAULT_MAX_CHUNK_BYTES);
+	}
+
+	public long getMaxChunkBytes() {
+		return maxChunkBytes;
+	}
+
+	/**
+	 * Set how many chunks of a recording larger than the chunk size are
+	 * transcribed at the same time.
+	 */
+	public void setChunkThreads(int chunkThreads) {
+		this.chunkThreads = chunkThreads;
 	}
 
 	/**
@@ -118,6 +606,9 @@ public class WhisperTranscriber {
 	static class WhisperResponse {
 		private String text;
 
+		//only in 'verbose_json' responses
+		private List<Segment> segments;
+
 		public String getText() {
 			return text;
 		}
@@ -126,5 +617,40 @@ public class WhisperTranscriber {
 			this.text = text;
 		}
 
+		public List<Segment> getSegments() {
+			return segments;
+		}
+
+	}
+
+	/**
+	 * A segment of a 'verbose_json' response: a piece of the transcription with
+	 * its start and end time in seconds.
+	 */
+	static class Segment {
+		private double start;
+		private double end;
+		private String text;
+
+		Segment() {
+		}
+
+		Segment(double start, double end, String text) {
+			this.start = start;
+			this.end = end;
+			this.text = text;
+		}
+
+		public double getStart() {
+			return start;
+		}
+
+		public double getEnd() {
+			return end;
+		}
+
+		public String getText() {
+			return text;
+		}
 	}
 }
@@ -0,0 +1,64 @@
+package group.kibi.ei_scoring.scorer;
+
+import java.util.List;
+
+import edu.stanford.nlp.simple.Sentence;
+import edu.stanford.nlp.simple.Token;
+
+/**
+ * A response together with its CoreNLP annotation. The annotation is only
+ * computed the first time a scorer asks for it, and then shared by all
+ * scorers of the response. Scorers that can decide on the text alone (e.g. an
+ * exact match with the target) therefore cost no NLP processing, and the
+ * CoreNLP work is done at most once per response no matter how many rubrics
+ * are applied.
+ *
+ * This class is not thread-safe; use one instance per response and thread.
+ */
+public class AnnotatedResponse {
+
+	private String text;
+	private Sentence sentence;
+
+	public AnnotatedResponse(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * The response as transcribed.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * The response processed with the CoreNLP simple API, which is the fastest
+	 * way to do NLP processing, but without a lot of customization.
+	 */
+	public Sentence getSentence() {
+		if (sentence == null) {
+			sentence = new Sentence(text);
+		}
+		return sentence;
+	}
+
+	public List<String> lemmas() {
+		return getSentence().lemmas();
+	}
+
+	public List<Token> tokens() {
+		return getSentence().tokens();
+	}
+
+	/**
+	 * POS tags from the Penn Treebank tag set.
+	 */
+	public List<String> posTags() {
+		return getSentence().posTags();
+	}
+
+	public boolean isAnnotated() {
+		return sentence != null;
+	}
+
+}
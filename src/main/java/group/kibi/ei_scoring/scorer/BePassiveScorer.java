@@ -5,7 +5,6 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.stanford.nlp.simple.Sentence;
 import edu.stanford.nlp.simple.Token;
 
 
@@ -13,7 +12,7 @@ import edu.stanford.nlp.simple.Token;
  * This scorer demonstrates how rules for a different scoring scale can be
  * written. Here a scale of 5 scores (0-4) are used.
  */
-public class BePassiveScorer {
+public class BePassiveScorer implements Scorer {
 
 	private String target; 
 	private String targetLemma; 
@@ -54,6 +53,11 @@ public class BePassiveScorer {
 		this.targetBeForm = targetBeForm;
 	}
 
+	@Override
+	public int getMaxScore() {
+		return 4;
+	}
+
 	/**
 	 * For scoring a response to a prompt targeting be-passive.
 	 * 
@@ -64,6 +68,12 @@ public class BePassiveScorer {
 	 * @return
 	 */
 	public int getScore(String response) {
+		return getScore(new AnnotatedResponse(response));
+	}
+
+	@Override
+	public int getScore(AnnotatedResponse annotatedResponse) {
+		String response = annotatedResponse.getText();
 		// score 4: no error. No need to do NLP processing.
 		logger.info("Checking score 4...");
 		if (target.equals(response.trim())) {
@@ -74,14 +84,15 @@ public class BePassiveScorer {
 		// Use the corenlp simple API, which is the fastest way to do NLP
 		// processing, but without a lot of customization. It meets our scoring
 		// task requirements though.
-		logger.info("Processing response with Corenlp...");
-		Sentence sent = new Sentence(response);
+		if (!annotatedResponse.isAnnotated()) {
+			logger.info("Processing response with Corenlp...");
+		}
 
 		// get all the tokens and lemmas, POS tags. Corenlp use the Penntreebank
 		// tag set.
-		List<String> lemmas = sent.lemmas();
-		List<Token> tokens = sent.tokens();
-		List<String> posTags = sent.posTags();
+		List<String> lemmas = annotatedResponse.lemmas();
+		List<Token> tokens = annotatedResponse.tokens();
+		List<String> posTags = annotatedResponse.posTags();
 
 		// score 3: be + verb PP, but stem of the verb pp is not correct (e.g.
 		// spelling mistakes)
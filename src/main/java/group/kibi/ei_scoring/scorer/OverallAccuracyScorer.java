@@ -0,0 +1,62 @@
+package group.kibi.ei_scoring.scorer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.stanford.nlp.simple.Sentence;
+
+/**
+ * This scorer gives the overall accuracy of a response regardless of the
+ * targeted structure: a score of 1 if the response repeats the target word for
+ * word, and 0 otherwise. Differences in case and punctuation are ignored.
+ */
+public class OverallAccuracyScorer implements Scorer {
+
+	//the words of the target corrected prompt, lower-cased
+	private List<String> targetWords;
+
+	Logger logger = LoggerFactory.getLogger(getClass());
+
+	public OverallAccuracyScorer(String target) {
+		this.targetWords = normalize(new Sentence(target).words());
+	}
+
+	@Override
+	public int getMaxScore() {
+		return 1;
+	}
+
+	/**
+	 * For scoring the overall accuracy of a response.
+	 *
+	 * @param annotatedResponse the student's response to the prompt
+	 * @return
+	 */
+	@Override
+	public int getScore(AnnotatedResponse annotatedResponse) {
+		logger.info("Checking overall accuracy...");
+		List<String> words = normalize(annotatedResponse.getSentence().words());
+		if (words.equals(targetWords)) {
+			logger.info("Response repeats the target word for word. Give score 1.");
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Lower-case the words and drop the punctuation tokens.
+	 */
+	private static List<String> normalize(List<String> words) {
+		List<String> normalized = new ArrayList<>();
+		for (String word : words) {
+			if (word.chars().anyMatch(Character::isLetterOrDigit)) {
+				normalized.add(word.toLowerCase());
+			}
+		}
+		return normalized;
+	}
+
+}
@@ -0,0 +1,101 @@
+package group.kibi.ei_scoring.scorer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import group.kibi.ei_scoring.scorer.demo.BePassiveDemo;
+import group.kibi.ei_scoring.scorer.demo.ThirdPersonSingularDemo;
+
+/**
+ * The configured scoring rubrics, looked up by name. This lets tools that
+ * only get a name on the command line (e.g. shard workers) create the same
+ * scorer as the demos.
+ */
+public class Rubrics {
+
+	public static final String BE_PASSIVE_210 = "be_passive210";
+	public static final String THIRD_PERSON = "3rd_person";
+
+	//the same items, scored on the finer scales of BePassiveScorer (0-4) and
+	//ThirdPersonSingularScorer (0-2)
+	public static final String BE_PASSIVE_210_SCALE_4 = "be_passive210_scale4";
+	public static final String THIRD_PERSON_SCALE_2 = "3rd_person_scale2";
+
+	//the same items, scored for overall accuracy
+	public static final String BE_PASSIVE_210_ACCURACY = "be_passive210_accuracy";
+	public static final String THIRD_PERSON_ACCURACY = "3rd_person_accuracy";
+
+	static final String BE_PASSIVE_210_TARGET = "Children should not be allowed to stay out late with their friends.";
+	static final String THIRD_PERSON_TARGET = "Everyone loves to read comic books as a child.";
+
+	public static List<String> names() {
+		return Arrays.asList(BE_PASSIVE_210, THIRD_PERSON, BE_PASSIVE_210_SCALE_4, THIRD_PERSON_SCALE_2,
+				BE_PASSIVE_210_ACCURACY, THIRD_PERSON_ACCURACY);
+	}
+
+	/**
+	 * Create the scorer of a rubric.
+	 * @param rubric the rubric name
+	 * @return the scorer
+	 * @throws IllegalArgumentException if there is no rubric with this name
+	 */
+	public static Scorer createScorer(String rubric) {
+		switch (rubric) {
+		case BE_PASSIVE_210:
+			//the demo's target has no final period
+			return new BePassiveDemo(BE_PASSIVE_210_TARGET.substring(0, BE_PASSIVE_210_TARGET.length() - 1),
+					"allow", "be");
+		case THIRD_PERSON:
+			return new ThirdPersonSingularDemo(THIRD_PERSON_TARGET, "love", "loves");
+		case BE_PASSIVE_210_SCALE_4:
+			return new BePassiveScorer(BE_PASSIVE_210_TARGET, "allow", "be");
+		case THIRD_PERSON_SCALE_2:
+			return new ThirdPersonSingularScorer(THIRD_PERSON_TARGET, "love", "loves");
+		case BE_PASSIVE_210_ACCURACY:
+			return new OverallAccuracyScorer(BE_PASSIVE_210_TARGET);
+		case THIRD_PERSON_ACCURACY:
+			return new OverallAccuracyScorer(THIRD_PERSON_TARGET);
+		default:
+			throw new IllegalArgumentException("Unknown rubric '" + rubric + "'. Known rubrics: " + names());
+		}
+	}
+
+	/**
+	 * The item a rubric scores. Rubrics for the same item on different scales
+	 * share the item number, so their summaries line up.
+	 */
+	public static String itemOf(String rubric) {
+		if (!names().contains(rubric)) {
+			throw new IllegalArgumentException("Unknown rubric '" + rubric + "'. Known rubrics: " + names());
+		}
+		return rubric.startsWith(BE_PASSIVE_210) ? BE_PASSIVE_210 : THIRD_PERSON;
+	}
+
+	/**
+	 * Create a scoring engine that applies the given rubrics to every
+	 * response, annotating each response only once. All rubrics have to score
+	 * the same item, since the responses of a file are answers to one item.
+	 * @param rubrics the rubric names
+	 * @return the scoring engine
+	 * @throws IllegalArgumentException if there is no rubric with one of the
+	 *                                  names, or the rubrics score different
+	 *                                  items
+	 */
+	public static ScoringEngine createEngine(String... rubrics) {
+		if (rubrics.length == 0) {
+			throw new IllegalArgumentException("No rubrics given. Known rubrics: " + names());
+		}
+		String item = itemOf(rubrics[0]);
+		ScoringEngine engine = new ScoringEngine();
+		for (String rubric : rubrics) {
+			if (!itemOf(rubric).equals(item)) {
+				throw new IllegalArgumentException(String.format("Rubric '%s' scores item %s, but '%s' scores item %s.",
+						rubric, itemOf(rubric), rubrics[0], item));
+			}
+			engine.addRubric(rubric, createScorer(rubric));
+		}
+		engine.setItemNumber(item);
+		return engine;
+	}
+
+}
@@ -0,0 +1,188 @@
+package group.kibi.ei_scoring.scorer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import group.kibi.ei_scoring.MetaData;
+
+/**
+ * Builds per-participant totals, per-item difficulty and score distributions
+ * while the scores are produced, so that no second pass over the scores file
+ * is needed.
+ *
+ * Every participant id and item number is given a dense int id the first time
+ * it is seen. The statistics are kept in arrays indexed by that id, so adding a
+ * score is one lookup plus a few array updates. Participants and items are
+ * reported in the order they were first seen.
+ *
+ * This class is not thread-safe.
+ */
+public class ScoreAggregator {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	//the highest score of the scoring scale, used for item difficulty
+	private int maxScore;
+
+	private Map<String, Integer> participantIndex = new HashMap<>();
+	private List<String> participantIds = new ArrayList<>();
+	private int[] participantResponses = new int[INITIAL_CAPACITY];
+	private long[] participantTotals = new long[INITIAL_CAPACITY];
+
+	private Map<String, Integer> itemIndex = new HashMap<>();
+	private List<String> itemNumbers = new ArrayList<>();
+	private int[] itemResponses = new int[INITIAL_CAPACITY];
+	private long[] itemTotals = new long[INITIAL_CAPACITY];
+
+	//score counts per item, indexed by item id and then by score
+	private long[][] itemDistributions = new long[INITIAL_CAPACITY][];
+
+	//score counts over all responses, indexed by score
+	private long[] distribution;
+
+	private long responses;
+	private long total;
+
+	/**
+	 * @param maxScore the highest score of the scoring scale, e.g. 1 for binary
+	 *                 scoring
+	 */
+	public ScoreAggregator(int maxScore) {
+		this.maxScore = maxScore;
+		this.distribution = new long[maxScore + 1];
+	}
+
+	public void add(MetaData metaData, int score) {
+		add(metaData.getParticipantId(), metaData.getItemNumber(), score);
+	}
+
+	public void add(String participantId, String itemNumber, int score) {
+		if (score < 0) {
+			throw new IllegalArgumentException("Negative score " + score + " for participant " + participantId);
+		}
+
+		int participant = indexOf(participantId, participantIndex, participantIds);
+		if (participant == participantResponses.length) {
+			participantResponses = Arrays.copyOf(participantResponses, participant * 2);
+			participantTotals = Arrays.copyOf(participantTotals, participant * 2);
+		}
+		participantResponses[participant]++;
+		participantTotals[participant] += score;
+
+		int item = indexOf(itemNumber, itemIndex, itemNumbers);
+		if (item == itemResponses.length) {
+			itemResponses = Arrays.copyOf(itemResponses, item * 2);
+			itemTotals = Arrays.copyOf(itemTotals, item * 2);
+			itemDistributions = Arrays.copyOf(itemDistributions, item * 2);
+		}
+		itemResponses[item]++;
+		itemTotals[item] += score;
+		itemDistributions[item] = increment(itemDistributions[item], score);
+
+		distribution = increment(distribution, score);
+		responses++;
+		total += score;
+	}
+
+	/**
+	 * Look up the dense id of a key, assigning the next id if it is new.
+	 */
+	private static int indexOf(String key, Map<String, Integer> index, List<String> keys) {
+		Integer id = index.get(key);
+		if (id == null) {
+			id = keys.size();
+			index.put(key, id);
+			keys.add(key);
+		}
+		return id;
+	}
+
+	private long[] increment(long[] counts, int score) {
+		if (counts == null) {
+			counts = new long[Math.max(maxScore, score) + 1];
+		} else if (score >= counts.length) {
+			counts = Arrays.copyOf(counts, score + 1);
+		}
+		counts[score]++;
+		return counts;
+	}
+
+	public long getResponses() {
+		return responses;
+	}
+
+	public double getMeanScore() {
+		return responses == 0 ? 0 : (double) total / responses;
+	}
+
+	public int getParticipantCount() {
+		return participantIds.size();
+	}
+
+	public int getItemCount() {
+		return itemNumbers.size();
+	}
+
+	/**
+	 * Write the summary report as a TSV file with one section each for the
+	 * participants, the items and the overall score distribution.
+	 * @param reportFile the file to write
+	 * @throws IOException
+	 */
+	public void writeReport(File reportFile) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+			writeReport(writer);
+		}
+	}
+
+	public void writeReport(Writer writer) throws IOException {
+		int scoreColumns = distribution.length;
+
+		writer.write("# participants\n");
+		writer.write("participant_id\tresponses\ttotal_score\tmean_score\n");
+		for (int i = 0; i < participantIds.size(); i++) {
+			writer.write(participantIds.get(i) + "\t" + participantResponses[i] + "\t" + participantTotals[i] + "\t"
+					+ format((double) participantTotals[i] / participantResponses[i]) + "\n");
+		}
+
+		writer.write("\n# items\n");
+		writer.write("item_number\tresponses\tmean_score\tdifficulty");
+		for (int score = 0; score < scoreColumns; score++) {
+			writer.write("\tscore_" + score);
+		}
+		writer.write("\n");
+		for (int i = 0; i < itemNumbers.size(); i++) {
+			double mean = (double) itemTotals[i] / itemResponses[i];
+			// Difficulty is the share of the possible points that were not
+			// obtained, so harder items have higher values.
+			double difficulty = maxScore == 0 ? 0 : 1 - mean / maxScore;
+			writer.write(itemNumbers.get(i) + "\t" + itemResponses[i] + "\t" + format(mean) + "\t" + format(difficulty));
+			long[] counts = itemDistributions[i];
+			for (int score = 0; score < scoreColumns; score++) {
+				writer.write("\t" + (score < counts.length ? counts[score] : 0));
+			}
+			writer.write("\n");
+		}
+
+		writer.write("\n# score distribution\n");
+		writer.write("score\tcount\n");
+		for (int score = 0; score < scoreColumns; score++) {
+			writer.write(score + "\t" + distribution[score] + "\n");
+		}
+		writer.write("total\t" + responses + "\n");
+	}
+
+	private static String format(double value) {
+		return String.format("%.4f", value);
+	}
+
+}
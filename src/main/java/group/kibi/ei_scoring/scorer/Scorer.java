@@ -0,0 +1,25 @@
+package group.kibi.ei_scoring.scorer;
+
+/**
+ * A scoring rubric. Scorers take a response whose CoreNLP annotation may
+ * already have been computed for another rubric, so that one annotation can
+ * be scored under several rubrics.
+ */
+public interface Scorer {
+
+	/**
+	 * Score a response. The annotation of the response is computed on first
+	 * use and shared with the other rubrics scoring the same response, so a
+	 * scorer should only ask for it once the text alone can't decide the
+	 * score.
+	 * @param response the response and its annotation
+	 * @return the score, from 0 to {@link #getMaxScore()}
+	 */
+	int getScore(AnnotatedResponse response);
+
+	/**
+	 * The highest score of the scoring scale, e.g. 1 for binary scoring.
+	 */
+	int getMaxScore();
+
+}
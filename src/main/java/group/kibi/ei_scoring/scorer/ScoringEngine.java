@@ -0,0 +1,340 @@
+package group.kibi.ei_scoring.scorer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import group.kibi.ei_scoring.MappedTsvReader;
+import group.kibi.ei_scoring.MetaData;
+
+/**
+ * Scores a TSV file of transcribed responses line by line. The first column
+ * identifies the response and the second column is the transcription; the
+ * first line is a heading line. Each line is written to the score file with
+ * the score added as a new column, and the score is added to a
+ * {@link ScoreAggregator} on the way, so the summary report is ready as soon
+ * as the last line is scored.
+ *
+ * The engine can apply several rubrics at once. Each response is then
+ * annotated once and the annotation is handed to every rubric, and the score
+ * file gets one score column per rubric.
+ *
+ * With more than one thread, the response file is memory-mapped and split into
+ * ranges of whole lines that are parsed and scored in parallel. The scored
+ * ranges are written and aggregated in file order, so the score file is the
+ * same as with a single thread.
+ */
+public class ScoringEngine {
+
+	private List<String> rubrics = new ArrayList<>();
+	private List<Scorer> scorers = new ArrayList<>();
+
+	//if set, all responses are for this item and the first column only holds
+	//the participant id. Otherwise the first column is an audio file name
+	//that MetaData can parse.
+	private String itemNumber;
+
+	private int threads = 1;
+
+	Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * Add a rubric to score the responses with.
+	 * @param rubric the rubric name, used as the heading of its score column
+	 * @param scorer the scoring algorithm
+	 */
+	public void addRubric(String rubric, Scorer scorer) {
+		rubrics.add(rubric);
+		scorers.add(scorer);
+	}
+
+	public List<String> getRubrics() {
+		return rubrics;
+	}
+
+	public List<Scorer> getScorers() {
+		return scorers;
+	}
+
+	public void setItemNumber(String itemNumber) {
+		this.itemNumber = itemNumber;
+	}
+
+	/**
+	 * Set the number of threads that score responses. With more than one
+	 * thread, the scorers must be safe to use from several threads at once.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, got " + threads);
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * The headings of the score columns. With a single rubric the column is
+	 * just called 'score', as in the score files of the demos.
+	 */
+	public String getScoreHeading() {
+		return rubrics.size() == 1 ? "score" : String.join("\t", rubrics);
+	}
+
+	/**
+	 * Create one aggregator per rubric.
+	 * @return the aggregators by rubric name, in the order of the rubrics
+	 */
+	public Map<String, ScoreAggregator> createAggregators() {
+		Map<String, ScoreAggregator> aggregators = new LinkedHashMap<>();
+		for (int i = 0; i < rubrics.size(); i++) {
+			aggregators.put(rubrics.get(i), new ScoreAggregator(scorers.get(i).getMaxScore()));
+		}
+		return aggregators;
+	}
+
+	/**
+	 * Score all responses in a response file.
+	 * @param responseFile the transcribed responses
+	 * @param scoreFile    where the scored responses are written
+	 * @return the aggregated scores by rubric name
+	 * @throws IOException
+	 */
+	public Map<String, ScoreAggregator> scoreFile(File responseFile, File scoreFile) throws IOException {
+		if (threads > 1) {
+			return scoreFileInParallel(responseFile, scoreFile);
+		}
+		Map<String, ScoreAggregator> aggregators = createAggregators();
+
+		try (BufferedReader reader = Files.newBufferedReader(responseFile.toPath(), StandardCharsets.UTF_8);
+				BufferedWriter writer = Files.newBufferedWriter(scoreFile.toPath(), StandardCharsets.UTF_8)) {
+			reader.readLine(); //skip heading line
+			writer.write("id\ttranscription\t" + getScoreHeading() + "\n");
+
+			String responseLine;
+			while ((responseLine = reader.readLine()) != null) {
+				String[] columns = responseLine.split("\t");
+				if (columns.length > 1) {
+					String response = columns[1];
+					int[] scores = score(response);
+
+					writer.write(responseLine + "\t" + join(scores) + "\n");
+					aggregate(aggregators, toMetaData(columns[0]), scores);
+				}
+			}
+		}
+
+		return aggregators;
+	}
+
+	/**
+	 * Score the ranges of a memory-mapped response file on the engine's
+	 * threads. Only a few ranges per thread are in flight at once; the rest are
+	 * submitted as the scored ranges are written, in file order.
+	 */
+	private Map<String, ScoreAggregator> scoreFileInParallel(File responseFile, File scoreFile) throws IOException {
+		Map<String, ScoreAggregator> aggregators = createAggregators();
+		MappedTsvReader reader = new MappedTsvReader(responseFile, true);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(scoreFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write("id\ttranscription\t" + getScoreHeading() + "\n");
+
+			List<MappedTsvReader.Range> ranges = reader.split(threads * 4, executor);
+			Deque<Future<ScoredRange>> inFlight = new ArrayDeque<>();
+			int next = 0;
+			while (next < ranges.size() && inFlight.size() < threads * 2) {
+				inFlight.add(submit(executor, reader, ranges.get(next++)));
+			}
+
+			while (!inFlight.isEmpty()) {
+				ScoredRange scoredRange = get(inFlight.poll());
+				if (next < ranges.size()) {
+					inFlight.add(submit(executor, reader, ranges.get(next++)));
+				}
+
+				for (int i = 0; i < scoredRange.rows.size(); i++) {
+					int[] scores = scoredRange.scores.get(i);
+					if (scores != null) {
+						MappedTsvReader.Row row = scoredRange.rows.get(i);
+						writer.write(row.getLine() + "\t" + join(scores) + "\n");
+						aggregate(aggregators, toMetaData(row.getColumns()[0]), scores);
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return aggregators;
+	}
+
+	private Future<ScoredRange> submit(ExecutorService executor, MappedTsvReader reader,
+			MappedTsvReader.Range range) {
+		return executor.submit(() -> {
+			List<MappedTsvReader.Row> rows = reader.parse(range);
+			List<int[]> scores = new ArrayList<>(rows.size());
+			for (MappedTsvReader.Row row : rows) {
+				String[] columns = row.getColumns();
+				scores.add(columns.length > 1 ? score(columns[1]) : null);
+			}
+			return new ScoredRange(rows, scores);
+		});
+	}
+
+	private static ScoredRange get(Future<ScoredRange> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scoring", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to score", e.getCause());
+		}
+	}
+
+	/**
+	 * The rows of a range with their scores, null for rows without a response.
+	 */
+	private static class ScoredRange {
+		private List<MappedTsvReader.Row> rows;
+		private List<int[]> scores;
+
+		ScoredRange(List<MappedTsvReader.Row> rows, List<int[]> scores) {
+			this.rows = rows;
+			this.scores = scores;
+		}
+	}
+
+	/**
+	 * Score all responses in a response file and write the summary report once
+	 * the last response is scored.
+	 * @param responseFile the transcribed responses
+	 * @param scoreFile    where the scored responses are written
+	 * @param reportFile   where the summary report is written
+	 * @return the aggregated scores by rubric name
+	 * @throws IOException
+	 */
+	public Map<String, ScoreAggregator> scoreFile(File responseFile, File scoreFile, File reportFile)
+			throws IOException {
+		Map<String, ScoreAggregator> aggregators = scoreFile(responseFile, scoreFile);
+		writeReport(aggregators, reportFile);
+		for (Map.Entry<String, ScoreAggregator> entry : aggregators.entrySet()) {
+			ScoreAggregator aggregator = entry.getValue();
+			logger.info("{}: scored {} responses from {} participants, mean score {}.", entry.getKey(),
+					aggregator.getResponses(), aggregator.getParticipantCount(),
+					String.format("%.4f", aggregator.getMeanScore()));
+		}
+		return aggregators;
+	}
+
+	/**
+	 * Write the summary reports of all rubrics to one file. With several
+	 * rubrics, each report is headed by the rubric name.
+	 */
+	public static void writeReport(Map<String, ScoreAggregator> aggregators, File reportFile) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8)) {
+			boolean first = true;
+			for (Map.Entry<String, ScoreAggregator> entry : aggregators.entrySet()) {
+				if (aggregators.size() > 1) {
+					writer.write((first ? "" : "\n") + "## rubric: " + entry.getKey() + "\n");
+				}
+				entry.getValue().writeReport(writer);
+				first = false;
+			}
+		}
+	}
+
+	/**
+	 * Score a single response under all rubrics. The response is annotated at
+	 * most once, however many rubrics there are.
+	 * @param response the transcription of the response
+	 * @return the scores, in the order of the rubrics
+	 */
+	public int[] score(String response) {
+		logger.info("Scoring response: " + response);
+		AnnotatedResponse annotatedResponse = new AnnotatedResponse(response);
+		int[] scores = new int[scorers.size()];
+		for (int i = 0; i < scorers.size(); i++) {
+			scores[i] = scorers.get(i).getScore(annotatedResponse);
+			logger.info("\t{}: {}", rubrics.get(i), scores[i]);
+		}
+		return scores;
+	}
+
+	/**
+	 * Add the scores of one response to the aggregators of the rubrics.
+	 */
+	public static void aggregate(Map<String, ScoreAggregator> aggregators, MetaData metaData, int[] scores) {
+		int i = 0;
+		for (ScoreAggregator aggregator : aggregators.values()) {
+			aggregator.add(metaData, scores[i++]);
+		}
+	}
+
+	/**
+	 * Join scores into tab-separated columns.
+	 */
+	public static String join(int[] scores) {
+		StringBuilder columns = new StringBuilder();
+		for (int i = 0; i < scores.length; i++) {
+			if (i > 0) {
+				columns.append('\t');
+			}
+			columns.append(scores[i]);
+		}
+		return columns.toString();
+	}
+
+	/**
+	 * Get the participant id and item number of a response from its first
+	 * column.
+	 */
+	public MetaData toMetaData(String id) {
+		return itemNumber == null ? new MetaData(id) : new MetaData(id, itemNumber);
+	}
+
+	/**
+	 * Score a response file with one or more configured rubrics.
+	 * The summary report is written next to the score file, named
+	 * summary_[score file name].
+	 * @param args RUBRIC[,RUBRIC...] responseFile scoreFile [THREADS]
+	 */
+	public static void main(String[] args) throws IOException {
+		Logger logger = LoggerFactory.getLogger(ScoringEngine.class);
+		if (args.length < 3) {
+			logger.info("Usage: ScoringEngine RUBRIC[,RUBRIC...] responseFile scoreFile [THREADS]");
+			logger.info("Known rubrics: {}", Rubrics.names());
+			System.exit(1);
+		}
+		ScoringEngine engine = Rubrics.createEngine(args[0].split(","));
+		engine.setThreads(args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+
+		File scoreFile = new File(args[2]);
+		File reportFile = new File(scoreFile.getAbsoluteFile().getParentFile(), "summary_" + scoreFile.getName());
+		long start = System.currentTimeMillis();
+		engine.scoreFile(new File(args[1]), scoreFile, reportFile);
+		logger.info("Scored {} with {} in {} ms.", args[1], Arrays.toString(args[0].split(",")),
+				System.currentTimeMillis() - start);
+	}
+
+}
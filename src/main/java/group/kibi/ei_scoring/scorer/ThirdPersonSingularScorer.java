@@ -5,13 +5,12 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.stanford.nlp.simple.Sentence;
 import edu.stanford.nlp.simple.Token;
 
 /**
  * This class demonstrates a scorer with a different scoring scale.
  */
-public class ThirdPersonSingularScorer {
+public class ThirdPersonSingularScorer implements Scorer {
 
 	//the target corrected prompt
 	private String target; 
@@ -44,6 +43,11 @@ public class ThirdPersonSingularScorer {
 		this.targetLemmaForm = targetLemmaForm;
 	}
 
+	@Override
+	public int getMaxScore() {
+		return 2;
+	}
+
 	/**
 	 * For scoring a response to a prompt targeting third-person singular -s
 	 * 
@@ -51,6 +55,12 @@ public class ThirdPersonSingularScorer {
 	 * @return
 	 */
 	public int getScore(String response) {
+		return getScore(new AnnotatedResponse(response));
+	}
+
+	@Override
+	public int getScore(AnnotatedResponse annotatedResponse) {
+		String response = annotatedResponse.getText();
 		// score 2: no error. No need to do NLP processing.
 		logger.info("Checking score 2...");
 		if (target.equals(response.trim())) {
@@ -61,14 +71,15 @@ public class ThirdPersonSingularScorer {
 		// Use the corenlp simple API, which is the fastest way to do NLP
 		// processing, but without a lot of customization. It meets our scoring
 		// task requirements though.
-		logger.info("Processing response with Corenlp...");
-		Sentence sent = new Sentence(response);
+		if (!annotatedResponse.isAnnotated()) {
+			logger.info("Processing response with Corenlp...");
+		}
 
 		// get all the tokens and lemmas, POS tags. Corenlp use the Penntreebank
 		// tag set.
-		List<String> lemmas = sent.lemmas();
-		List<Token> tokens = sent.tokens();
-		List<String> posTags = sent.posTags();
+		List<String> lemmas = annotatedResponse.lemmas();
+		List<Token> tokens = annotatedResponse.tokens();
+		List<String> posTags = annotatedResponse.posTags();
 
 		// score 1: use the stem in PP form, but no "be" or "be" in wrong form
 		logger.info("Checking score 1...");
@@ -3,20 +3,20 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.stanford.nlp.simple.Sentence;
 import edu.stanford.nlp.simple.Token;
+import group.kibi.ei_scoring.scorer.AnnotatedResponse;
+import group.kibi.ei_scoring.scorer.Scorer;
+import group.kibi.ei_scoring.scorer.ScoringEngine;
 
 /**
  * This is for demonstrating scoring 'be-passive' responses.
  */
-public class BePassiveDemo {
+public class BePassiveDemo implements Scorer {
 
 	//The target sentence, which is the sentence the test taker hears.
 	private String target; 
@@ -69,36 +69,21 @@ public class BePassiveDemo {
 	    //file where the scores are to be stored
 	    File scoreFile =new File(resourceFolder, "scores_be_passive210.tsv");
 	    
-	    //read the responses from the response file
-	    List<String> responseLines = FileUtils.readLines(responseFile, "UTF-8");
-	    responseLines.remove(0);//remove heading line
-	    
-	    //result lines, which will be written to the result file
-	    List<String> resultLines = new ArrayList<>();
-	    resultLines.add("id\ttranscription\tscore"); //add heading line
-
-	    //iterate over the lines in the response file, getting the response from
-	    //the second column in the TSV file and score them
-		for (String responseLine : responseLines) {
-			//Get the 2nd column (column index 1), which is the transcription of
-			//the response
-			String[] columns = responseLine.split("\t");
-			if (columns.length > 1) {
-				String response = columns[1];
-				scorer.logger.info("Scoring response: " + response);
-				int score = scorer.getScore(response);
-				scorer.logger.info("\tScore: " + score);
-
-				// Assuming you want to keep the original data and add a new column
-				String resultLine = responseLine + "\t" + score;
-				resultLines.add(resultLine);
-			}
-		}
-		
+	    //file where the per-participant and per-item summary is to be stored
+	    File summaryFile =new File(resourceFolder, "summary_be_passive210.tsv");
+
+	    //The scoring engine reads the response file line by line, gets the
+	    //response from the second column in the TSV file and scores it. The
+	    //score is added as a new column, and the scores are summarized per
+	    //participant and per item while the lines are scored.
+	    ScoringEngine engine = new ScoringEngine();
+	    engine.addRubric("be_passive210", scorer);
+	    engine.setItemNumber("be_passive210");
+
 		//pay attention to the output to see where the results file is stored
 		scorer.logger.info("Writing results to file: " + scoreFile);
-		FileUtils.writeLines(scoreFile, resultLines);
-		scorer.logger.info("Results written successfully."); 
+		engine.scoreFile(responseFile, scoreFile, summaryFile);
+		scorer.logger.info("Results written successfully. Summary written to file: " + summaryFile);
 
 	}
 	
@@ -108,6 +93,11 @@ public class BePassiveDemo {
 		this.targetBeForm = targetBeForm;
 	}
 
+	@Override
+	public int getMaxScore() {
+		return 1;
+	}
+
 	/**
 	 * The scoring algorithm is implemented here. The function takes a response
 	 * and return a score for that response.
@@ -115,6 +105,12 @@ public class BePassiveDemo {
 	 * @return
 	 */
 	public int getScore(String response) {
+		return getScore(new AnnotatedResponse(response));
+	}
+
+	@Override
+	public int getScore(AnnotatedResponse annotatedResponse) {
+		String response = annotatedResponse.getText();
 		// score 1: no error. No need to do NLP processing.
 		logger.info("\tChecking exact match...");
 		if (target.equals(response.trim())) {
@@ -125,14 +121,15 @@ public class BePassiveDemo {
 		// Use the CoreNLP simple API, which is the fastest way to do NLP
 		// processing, but without a lot of customization. It meets our scoring
 		// task requirements though.
-		logger.info("\tProcessing response with Corenlp...");
-		Sentence sent = new Sentence(response);
+		if (!annotatedResponse.isAnnotated()) {
+			logger.info("\tProcessing response with Corenlp...");
+		}
 
 		// get all the tokens and lemmas, POS tags. CoreNLP use the PennTreebank
 		// tag set.
-		List<String> lemmas = sent.lemmas();
-		List<Token> tokens = sent.tokens();
-		List<String> posTags = sent.posTags();
+		List<String> lemmas = annotatedResponse.lemmas();
+		List<Token> tokens = annotatedResponse.tokens();
+		List<String> posTags = annotatedResponse.posTags();
 		
 		// score 1: be + verb PP, but stem of the verb PP is not correct (e.g.
 		// spelling mistakes), Case 4 in Table 2 of the paper.
@@ -0,0 +1,398 @@
+package group.kibi.ei_scoring.shard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import group.kibi.ei_scoring.MetaData;
+import group.kibi.ei_scoring.scorer.Rubrics;
+import group.kibi.ei_scoring.scorer.ScoreAggregator;
+import group.kibi.ei_scoring.scorer.ScoringEngine;
+
+/**
+ * Splits a transcription or scoring run across several worker processes. The
+ * input (an audio folder or a transcription TSV) is partitioned by participant
+ * id, so all responses of a participant end up in the same shard, and the same
+ * input always gives the same shards. Each shard is handled by a
+ * {@link ShardWorker} process, and the shard outputs are merged back into one
+ * result in the original input order.
+ *
+ * Workers run as local processes by default. With '--hosts' they are spread
+ * over the listed hosts through ssh; the hosts then need to see the same file
+ * system paths and class path as the coordinator.
+ */
+public class ShardCoordinator {
+
+	static final String WORKER_CLASS = ShardWorker.class.getName();
+
+	static Logger logger = LoggerFactory.getLogger(ShardCoordinator.class);
+
+	private int shards;
+
+	//where the worker processes run. 'localhost' runs them directly.
+	private List<String> hosts = Arrays.asList("localhost");
+
+	//extra JVM options for the workers, e.g. '-Xmx4g' for CoreNLP
+	private List<String> javaOptions = new ArrayList<>();
+
+	//the shard inputs, outputs and worker logs are deleted after a successful
+	//run unless they are kept for debugging. After a failed run they are
+	//always kept.
+	private boolean keepWorkFolder;
+
+	public ShardCoordinator(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("Number of shards must be at least 1, got " + shards);
+		}
+		this.shards = shards;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<String> arguments = new ArrayList<>();
+		List<String> hosts = null;
+		List<String> javaOptions = new ArrayList<>();
+		boolean keepWorkFolder = false;
+		for (int i = 0; i < args.length; i++) {
+			if ("--hosts".equals(args[i]) && i + 1 < args.length) {
+				hosts = Arrays.asList(args[++i].split(","));
+			} else if ("--java-opts".equals(args[i]) && i + 1 < args.length) {
+				javaOptions.addAll(Arrays.asList(args[++i].trim().split("\\s+")));
+			} else if ("--keep-work".equals(args[i])) {
+				keepWorkFolder = true;
+			} else {
+				arguments.add(args[i]);
+			}
+		}
+
+		if (arguments.size() != 5 || !(ShardWorker.TRANSCRIBE.equals(arguments.get(0))
+				|| ShardWorker.SCORE.equals(arguments.get(0)))) {
+			logger.info("Usage: ShardCoordinator transcribe API_KEY /path/to/audio/folder /results/folder SHARDS [options]");
+			logger.info("       ShardCoordinator score RUBRIC[,RUBRIC...] /path/to/transcriptions.tsv /results/folder SHARDS [options]");
+			logger.info("Options: --hosts host1,host2   run workers on these hosts through ssh");
+			logger.info("         --java-opts \"-Xmx4g\"  JVM options for the workers");
+			logger.info("         --keep-work           keep the shard files and worker logs after a successful run");
+			logger.info("Rubrics: " + Rubrics.names());
+			System.exit(1);
+		}
+
+		ShardCoordinator coordinator = new ShardCoordinator(Integer.parseInt(arguments.get(4)));
+		if (hosts != null) {
+			coordinator.hosts = hosts;
+		}
+		coordinator.javaOptions = javaOptions;
+		coordinator.keepWorkFolder = keepWorkFolder;
+
+		File input = new File(arguments.get(2));
+		if (!input.exists()) {
+			logger.error(String.format("Input '%s' does not exist.", input));
+			System.exit(1);
+		}
+		File resultsFolder = new File(arguments.get(3));
+		if (!resultsFolder.exists() && !resultsFolder.mkdirs()) {
+			logger.error(String.format("Could not create results folder '%s'.", resultsFolder));
+			System.exit(1);
+		}
+
+		if (ShardWorker.TRANSCRIBE.equals(arguments.get(0))) {
+			coordinator.transcribe(arguments.get(1), input, resultsFolder);
+		} else {
+			coordinator.score(arguments.get(1), input, resultsFolder);
+		}
+	}
+
+	/**
+	 * The shard a participant belongs to. String.hashCode() is defined by the
+	 * Java language specification, so this is the same in every JVM.
+	 */
+	public static int shardOf(String participantId, int shards) {
+		return Math.floorMod(participantId.hashCode(), shards);
+	}
+
+	/**
+	 * Transcribe all .wav files in a folder.
+	 * @return the merged transcriptions file
+	 */
+	public File transcribe(String apiKey, File audioFolder, File resultsFolder)
+			throws IOException, InterruptedException {
+		long now = System.currentTimeMillis();
+		File workFolder = createWorkFolder(resultsFolder, now);
+
+		// List the files in a fixed order, so the row indexes (and with them
+		// the order of the merged results) don't depend on the file system.
+		List<File> files = new ArrayList<>();
+		Iterator<File> fileIterator =
+				FileUtils.iterateFiles(audioFolder, new WildcardFileFilter("*.wav"), TrueFileFilter.INSTANCE);
+		fileIterator.forEachRemaining(files::add);
+		files.sort(null);
+
+		List<BufferedWriter> inputs = openShardInputs(workFolder);
+		try {
+			for (int index = 0; index < files.size(); index++) {
+				File file = files.get(index);
+				String participantId = new MetaData(file.getName()).getParticipantId();
+				inputs.get(shardOf(participantId, shards)).write(index + "\t" + file.getAbsolutePath() + "\n");
+			}
+		} finally {
+			close(inputs);
+		}
+		logger.info("Partitioned {} audio files into {} shards in '{}'.", files.size(), shards, workFolder);
+
+		runWorkers(workFolder, shard -> Arrays.asList(ShardWorker.TRANSCRIBE,
+				inputFile(workFolder, shard).getAbsolutePath(), outputFile(workFolder, shard).getAbsolutePath()),
+				apiKey);
+
+		File resultsFile = new File(resultsFolder, "ei_transcriptions_" + now + ".tsv");
+		try (BufferedWriter writer = Files.newBufferedWriter(resultsFile.toPath(), StandardCharsets.UTF_8)) {
+			merge(workFolder, line -> writer.write(line + "\n"));
+		}
+		logger.info("Transcription completed. Results written to file: {}.", resultsFile.getAbsolutePath());
+		deleteWorkFolder(workFolder);
+		return resultsFile;
+	}
+
+	/**
+	 * Score all responses in a transcription TSV with a heading line.
+	 * @param rubric one rubric name, or several separated by commas
+	 * @return the merged scores file
+	 */
+	public File score(String rubric, File responseFile, File resultsFolder) throws IOException, InterruptedException {
+		long now = System.currentTimeMillis();
+		File workFolder = createWorkFolder(resultsFolder, now);
+
+		//only used for reading participant ids, nothing is scored here
+		ScoringEngine engine = Rubrics.createEngine(rubric.split(","));
+
+		String heading;
+		int rows = 0;
+		List<BufferedWriter> inputs = openShardInputs(workFolder);
+		try (BufferedReader reader = Files.newBufferedReader(responseFile.toPath(), StandardCharsets.UTF_8)) {
+			heading = reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				String id = tab < 0 ? line : line.substring(0, tab);
+				String participantId = engine.toMetaData(id).getParticipantId();
+				inputs.get(shardOf(participantId, shards)).write(rows++ + "\t" + line + "\n");
+			}
+		} finally {
+			close(inputs);
+		}
+		logger.info("Partitioned {} responses into {} shards in '{}'.", rows, shards, workFolder);
+
+		runWorkers(workFolder, shard -> Arrays.asList(ShardWorker.SCORE, rubric,
+				inputFile(workFolder, shard).getAbsolutePath(), outputFile(workFolder, shard).getAbsolutePath()),
+				null);
+
+		// Merge the shard outputs, summarizing the scores on the way just like
+		// a single-process run does.
+		String name = rubric.replace(',', '+');
+		File scoreFile = new File(resultsFolder, "scores_" + name + "_" + now + ".tsv");
+		File summaryFile = new File(resultsFolder, "summary_" + name + "_" + now + ".tsv");
+		Map<String, ScoreAggregator> aggregators = engine.createAggregators();
+		int rubrics = aggregators.size();
+		try (BufferedWriter writer = Files.newBufferedWriter(scoreFile.toPath(), StandardCharsets.UTF_8)) {
+			writer.write((heading == null ? "id\ttranscription" : heading) + "\t" + engine.getScoreHeading() + "\n");
+			merge(workFolder, line -> {
+				writer.write(line + "\n");
+				//the scores are the last columns, one per rubric
+				String[] columns = line.split("\t");
+				int[] scores = new int[rubrics];
+				for (int i = 0; i < rubrics; i++) {
+					scores[i] = Integer.parseInt(columns[columns.length - rubrics + i]);
+				}
+				ScoringEngine.aggregate(aggregators, engine.toMetaData(columns[0]), scores);
+			});
+		}
+		ScoringEngine.writeReport(aggregators, summaryFile);
+		logger.info("Scoring completed. Results written to file: {}. Summary written to file: {}.",
+				scoreFile.getAbsolutePath(), summaryFile.getAbsolutePath());
+		deleteWorkFolder(workFolder);
+		return scoreFile;
+	}
+
+	public void setKeepWorkFolder(boolean keepWorkFolder) {
+		this.keepWorkFolder = keepWorkFolder;
+	}
+
+	private static File createWorkFolder(File resultsFolder, long now) throws IOException {
+		File workFolder = new File(resultsFolder, "shards_" + now);
+		if (!workFolder.mkdirs()) {
+			throw new IOException("Could not create shard folder " + workFolder.getAbsolutePath());
+		}
+		return workFolder;
+	}
+
+	private void deleteWorkFolder(File workFolder) throws IOException {
+		if (keepWorkFolder) {
+			logger.info("Shard files and worker logs kept in '{}'.", workFolder.getAbsolutePath());
+		} else {
+			FileUtils.deleteDirectory(workFolder);
+		}
+	}
+
+	private static File inputFile(File workFolder, int shard) {
+		return new File(workFolder, "shard_" + shard + "_input.tsv");
+	}
+
+	private static File outputFile(File workFolder, int shard) {
+		return new File(workFolder, "shard_" + shard + "_output.tsv");
+	}
+
+	private static File logFile(File workFolder, int shard) {
+		return new File(workFolder, "shard_" + shard + ".log");
+	}
+
+	private List<BufferedWriter> openShardInputs(File workFolder) throws IOException {
+		List<BufferedWriter> inputs = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			inputs.add(Files.newBufferedWriter(inputFile(workFolder, shard).toPath(), StandardCharsets.UTF_8));
+		}
+		return inputs;
+	}
+
+	private static void close(List<BufferedWriter> writers) throws IOException {
+		for (BufferedWriter writer : writers) {
+			writer.close();
+		}
+	}
+
+	interface WorkerArguments {
+		List<String> forShard(int shard);
+	}
+
+	/**
+	 * Start one worker per shard and wait for all of them to finish.
+	 * @param stdin a line passed to every worker on standard input, or null
+	 */
+	private void runWorkers(File workFolder, WorkerArguments workerArguments, String stdin)
+			throws IOException, InterruptedException {
+		List<Process> processes = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			String host = hosts.get(shard % hosts.size());
+			List<String> command = workerCommand(host, workerArguments.forShard(shard));
+			logger.info("Starting worker for shard {} on {}.", shard, host);
+
+			ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true)
+					.redirectOutput(logFile(workFolder, shard));
+			Process process = builder.start();
+			try (OutputStream out = process.getOutputStream()) {
+				if (stdin != null) {
+					out.write((stdin + "\n").getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			processes.add(process);
+		}
+
+		List<Integer> failedShards = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			int exitCode = processes.get(shard).waitFor();
+			if (exitCode != 0) {
+				logger.error("Worker for shard {} failed with exit code {}. See {}.", shard, exitCode,
+						logFile(workFolder, shard).getAbsolutePath());
+				failedShards.add(shard);
+			}
+		}
+		if (!failedShards.isEmpty()) {
+			throw new IOException("Workers failed for shards " + failedShards);
+		}
+	}
+
+	private List<String> workerCommand(String host, List<String> workerArguments) {
+		List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		command.addAll(javaOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(WORKER_CLASS);
+		command.addAll(workerArguments);
+
+		if ("localhost".equals(host)) {
+			return command;
+		}
+
+		//ssh passes the remote command to a shell, so quote every argument
+		StringBuilder remoteCommand = new StringBuilder();
+		for (String argument : command) {
+			if (remoteCommand.length() > 0) {
+				remoteCommand.append(' ');
+			}
+			remoteCommand.append('\'').append(argument.replace("'", "'\\''")).append('\'');
+		}
+		return Arrays.asList("ssh", host, remoteCommand.toString());
+	}
+
+	interface LineConsumer {
+		void accept(String line) throws IOException;
+	}
+
+	/**
+	 * Merge the shard outputs by row index. Each shard output is already in
+	 * index order, so a k-way merge streams the rows in the original order
+	 * without loading the outputs into memory. The index column is dropped.
+	 */
+	private void merge(File workFolder, LineConsumer consumer) throws IOException {
+		List<BufferedReader> readers = new ArrayList<>();
+		try {
+			PriorityQueue<ShardLine> queue = new PriorityQueue<>();
+			for (int shard = 0; shard < shards; shard++) {
+				BufferedReader reader = Files.newBufferedReader(outputFile(workFolder, shard).toPath(),
+						StandardCharsets.UTF_8);
+				readers.add(reader);
+				ShardLine.next(reader, queue);
+			}
+
+			while (!queue.isEmpty()) {
+				ShardLine shardLine = queue.poll();
+				consumer.accept(shardLine.line);
+				ShardLine.next(shardLine.reader, queue);
+			}
+		} finally {
+			for (BufferedReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * The next line of a shard output, ordered by its row index.
+	 */
+	static class ShardLine implements Comparable<ShardLine> {
+		long index;
+		String line;
+		BufferedReader reader;
+
+		static void next(BufferedReader reader, PriorityQueue<ShardLine> queue) throws IOException {
+			String line = reader.readLine();
+			if (line != null) {
+				ShardLine shardLine = new ShardLine();
+				int tab = line.indexOf('\t');
+				shardLine.index = Long.parseLong(line.substring(0, tab));
+				shardLine.line = line.substring(tab + 1);
+				shardLine.reader = reader;
+				queue.add(shardLine);
+			}
+		}
+
+		@Override
+		public int compareTo(ShardLine other) {
+			return Long.compare(index, other.index);
+		}
+	}
+
+}
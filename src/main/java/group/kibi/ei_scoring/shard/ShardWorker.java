@@ -0,0 +1,134 @@
+package group.kibi.ei_scoring.shard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import group.kibi.ei_scoring.AudioIndex;
+import group.kibi.ei_scoring.WhisperTranscriber;
+import group.kibi.ei_scoring.scorer.Rubrics;
+import group.kibi.ei_scoring.scorer.ScoringEngine;
+
+/**
+ * Runs the transcription or scoring of one shard. Workers are started by the
+ * {@link ShardCoordinator}, either as local processes or on remote hosts
+ * through ssh.
+ *
+ * Every line of the shard input and output starts with the row index the
+ * coordinator gave the row, so that the coordinator can merge the outputs of
+ * all shards back into the original order.
+ */
+public class ShardWorker {
+
+	static final String TRANSCRIBE = "transcribe";
+	static final String SCORE = "score";
+
+	static Logger logger = LoggerFactory.getLogger(ShardWorker.class);
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 3 && TRANSCRIBE.equals(args[0])) {
+			// The API key is passed on standard input rather than on the
+			// command line, so that it doesn't show up in the process list of
+			// the (possibly remote) host.
+			BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+			String apiKey = stdin.readLine();
+			if (apiKey == null || apiKey.isEmpty()) {
+				logger.error("No API key on standard input.");
+				System.exit(1);
+			}
+			transcribe(new WhisperTranscriber(apiKey), new File(args[1]), new File(args[2]));
+		} else if (args.length == 4 && SCORE.equals(args[0])) {
+			score(Rubrics.createEngine(args[1].split(",")), new File(args[2]), new File(args[3]));
+		} else {
+			logger.info("Usage: ShardWorker transcribe /shard/manifest.tsv /shard/output.tsv < api_key");
+			logger.info("       ShardWorker score RUBRIC[,RUBRIC...] /shard/input.tsv /shard/output.tsv");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Transcribe the audio files listed in a shard manifest. Each manifest line
+	 * is 'index\tpath'; each output line is 'index\tfile name\ttranscription'.
+	 * 
+	 * As in TranscribeFolder, the WAV headers of all files are read into an
+	 * {@link AudioIndex} first, and files that are empty, truncated or not WAV
+	 * files are skipped instead of uploaded. The others are transcribed in
+	 * manifest order, which keeps the output sorted by index for the merge in
+	 * the coordinator.
+	 */
+	static void transcribe(WhisperTranscriber whisperTranscriber, File manifestFile, File outputFile)
+			throws IOException {
+		//the manifest in order, by file
+		Map<File, String> indexes = new LinkedHashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				indexes.put(new File(line.substring(tab + 1)), line.substring(0, tab));
+			}
+		}
+
+		//preflight: read the headers of all files and reject bad ones
+		AudioIndex audioIndex = AudioIndex.build(indexes.keySet());
+		Set<File> rejected = new HashSet<>();
+		for (AudioIndex.Entry entry : audioIndex.getRejected()) {
+			logger.warn("Skipping file {}: {}", entry.getFile().getName(), entry.getProblem());
+			rejected.add(entry.getFile());
+		}
+		logger.info("{} files to transcribe ({} seconds of audio), {} files skipped.", audioIndex.getValid().size(),
+				audioIndex.getTotalDurationMillis() / 1000, rejected.size());
+
+		try (BufferedWriter writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+			for (Map.Entry<File, String> entry : indexes.entrySet()) {
+				File file = entry.getKey();
+				if (rejected.contains(file)) {
+					continue;
+				}
+				logger.info("Transcribing file: " + file.getName());
+
+				try {
+					String transcription = whisperTranscriber.transcribe(file);
+					logger.info("\tTranscription: " + transcription);
+					writer.write(entry.getValue() + "\t" + file.getName() + "\t" + transcription + "\n");
+					//flush per file, so a crashed worker loses as little as possible
+					writer.flush();
+				} catch (IOException e) {
+					logger.error("Failed to transcribe file " + file.getAbsolutePath(), e);
+				}
+			}
+		}
+		logger.info("Requests: {}", whisperTranscriber.getStats().getSummary());
+	}
+
+	/**
+	 * Score the responses of a shard. Each input line is 'index\tresponse line';
+	 * each output line is 'index\tresponse line\tscores', with one score
+	 * column per rubric.
+	 */
+	static void score(ScoringEngine engine, File inputFile, File outputFile) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(inputFile.toPath(), StandardCharsets.UTF_8);
+				BufferedWriter writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t");
+				//columns[0] is the index, columns[2] the transcription
+				if (columns.length > 2) {
+					int[] scores = engine.score(columns[2]);
+					writer.write(line + "\t" + ScoringEngine.join(scores) + "\n");
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClipPackerTest {
+
+	@TempDir
+	Path folder;
+
+	@Test
+	public void packsAtMostMaxClips() throws IOException {
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			files.add(WavFileTest.writeWav(folder.resolve(i + ".wav").toFile(), 32000, 32000));
+		}
+		List<AudioPack> packs = new ClipPacker(WhisperTranscriber.DEFAULT_MAX_CHUNK_BYTES, 3)
+				.pack(AudioIndex.build(files).getValid());
+
+		assertEquals(3, packs.size());
+		assertEquals(3, packs.get(0).getClips().size());
+		assertEquals(3, packs.get(1).getClips().size());
+		assertEquals(1, packs.get(2).getClips().size());
+
+		AudioPack.Clip second = packs.get(0).getClips().get(1);
+		assertEquals(1000 + ClipPacker.SEPARATOR_MILLIS, second.getStartMillis());
+		assertEquals(2000 + ClipPacker.SEPARATOR_MILLIS, second.getEndMillis());
+	}
+
+	@Test
+	public void packStaysUnderSizeLimit() throws IOException {
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			files.add(WavFileTest.writeWav(folder.resolve(i + ".wav").toFile(), 32000, 32000));
+		}
+		//room for two clips with their silences, but not three
+		long maxPackBytes = 3 * 32000 + 2 * 64000 - 1;
+		for (AudioPack pack : new ClipPacker(maxPackBytes, 10).pack(AudioIndex.build(files).getValid())) {
+			assertEquals(2, pack.getClips().size());
+		}
+	}
+
+	@Test
+	public void longClipsArePackedAlone() throws IOException {
+		List<File> files = new ArrayList<>();
+		files.add(WavFileTest.writeWav(folder.resolve("long.wav").toFile(), 32000 * 30, 32000 * 30));
+		files.add(WavFileTest.writeWav(folder.resolve("a.wav").toFile(), 32000, 32000));
+		files.add(WavFileTest.writeWav(folder.resolve("b.wav").toFile(), 32000, 32000));
+		List<AudioPack> packs = new ClipPacker(WhisperTranscriber.DEFAULT_MAX_CHUNK_BYTES, 10)
+				.pack(AudioIndex.build(files).getValid());
+
+		assertEquals(2, packs.size());
+		assertEquals("long.wav", packs.get(0).getClips().get(0).getEntry().getFile().getName());
+		assertEquals(1, packs.get(0).getClips().size());
+		assertEquals(2, packs.get(1).getClips().size());
+	}
+
+}
@@ -0,0 +1,47 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class HedgingPolicyTest {
+
+	static final long CLIP_BYTES = 100 * 1024;
+	static final long CHUNK_BYTES = 24L * 1024 * 1024;
+
+	@Test
+	public void delayPerSizeBucket() {
+		HedgingPolicy policy = new HedgingPolicy(90, 10);
+		for (int i = 1; i <= 100; i++) {
+			policy.recordLatency(i * 10, CLIP_BYTES);
+		}
+		assertEquals(900, policy.getHedgeDelayMillis(CLIP_BYTES));
+		//nothing known about large uploads yet
+		assertEquals(-1, policy.getHedgeDelayMillis(CHUNK_BYTES));
+
+		for (int i = 1; i <= 100; i++) {
+			policy.recordLatency(i * 1000, CHUNK_BYTES);
+		}
+		assertEquals(90000, policy.getHedgeDelayMillis(CHUNK_BYTES));
+		assertEquals(900, policy.getHedgeDelayMillis(CLIP_BYTES));
+	}
+
+	@Test
+	public void budgetInRequestsAndBytes() {
+		HedgingPolicy policy = new HedgingPolicy(90, 10);
+		for (int i = 0; i < 20; i++) {
+			policy.recordRequest(CLIP_BYTES);
+		}
+		policy.recordRequest(CHUNK_BYTES);
+
+		//2 hedges fit the request budget, but a chunk is more than 10% of the
+		//uploaded bytes
+		assertFalse(policy.tryAcquireHedge(CHUNK_BYTES));
+		assertTrue(policy.tryAcquireHedge(CLIP_BYTES));
+		assertTrue(policy.tryAcquireHedge(CLIP_BYTES));
+		assertFalse(policy.tryAcquireHedge(CLIP_BYTES));
+	}
+
+}
@@ -0,0 +1,152 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import group.kibi.ei_scoring.MappedTsvReader.Range;
+import group.kibi.ei_scoring.MappedTsvReader.Row;
+
+public class MappedTsvReaderTest {
+
+	@TempDir
+	Path folder;
+
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@AfterEach
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	File write(String content) throws IOException {
+		File file = folder.resolve("responses.tsv").toFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * The rows as a line by line reader with {@code String.split} would see
+	 * them.
+	 */
+	static List<String[]> expectedRows(String rows) {
+		List<String> lines = new ArrayList<>(Arrays.asList(rows.split("\n", -1)));
+		//a final line terminator doesn't start another row
+		if (rows.endsWith("\n")) {
+			lines.remove(lines.size() - 1);
+		}
+		List<String[]> expected = new ArrayList<>();
+		for (String line : lines) {
+			expected.add(line.replaceAll("\r$", "").split("\t"));
+		}
+		return expected;
+	}
+
+	/**
+	 * Split the file into every possible number of ranges, so that the cuts
+	 * fall on every byte, mid-line as well as on line terminators, and check
+	 * that parsing the ranges in parallel gives the same rows as reading the
+	 * file line by line.
+	 */
+	void assertRows(String heading, String rows) throws Exception {
+		File file = write(heading == null ? rows : heading + "\n" + rows);
+		List<String[]> expected = expectedRows(rows);
+		int dataBytes = rows.getBytes(StandardCharsets.UTF_8).length;
+
+		for (int minRanges = 1; minRanges <= dataBytes + 1; minRanges++) {
+			MappedTsvReader reader = new MappedTsvReader(file, heading != null);
+			assertEquals(heading, reader.getHeading());
+			List<Range> ranges = reader.split(minRanges, executor);
+
+			List<Future<List<Row>>> parsed = new ArrayList<>();
+			for (Range range : ranges) {
+				parsed.add(executor.submit(() -> reader.parse(range)));
+			}
+			List<Row> actual = new ArrayList<>();
+			long end = ranges.isEmpty() ? 0 : ranges.get(0).getStart();
+			for (int i = 0; i < ranges.size(); i++) {
+				Range range = ranges.get(i);
+				assertEquals(i, range.getIndex());
+				//the ranges follow each other without gaps or overlaps
+				assertEquals(end, range.getStart());
+				assertTrue(range.getEnd() > range.getStart());
+				end = range.getEnd();
+				//row indexes continue across ranges
+				assertEquals(actual.size(), range.getFirstRowIndex(), minRanges + " ranges");
+				actual.addAll(parsed.get(i).get());
+			}
+
+			assertEquals(expected.size(), actual.size(), minRanges + " ranges");
+			for (int i = 0; i < expected.size(); i++) {
+				Row row = actual.get(i);
+				assertEquals(i, row.getIndex());
+				assertArrayEquals(expected.get(i), row.getColumns(), minRanges + " ranges, row " + i);
+				assertEquals(rows.split("\n", -1)[i].replaceAll("\r$", ""), row.getLine());
+			}
+		}
+	}
+
+	@Test
+	public void rows() throws Exception {
+		assertRows("id\ttranscription", "1\tThe cat sat.\n2\tA dog ran away.\n3\tBirds fly.\n");
+	}
+
+	@Test
+	public void noHeading() throws Exception {
+		assertRows(null, "1\tThe cat sat.\n2\tA dog ran away.\n");
+	}
+
+	@Test
+	public void windowsLineEndings() throws Exception {
+		assertRows("id\ttranscription", "1\tThe cat sat.\r\n2\tA dog ran away.\r\n3\tBirds fly.\r\n");
+	}
+
+	@Test
+	public void noFinalLineTerminator() throws Exception {
+		assertRows("id\ttranscription", "1\tThe cat sat.\n2\tA dog ran away.\n3\tBirds fly.");
+		assertRows("id\ttranscription", "1\tThe cat sat.\r\n2\tBirds fly.");
+	}
+
+	@Test
+	public void emptyColumns() throws Exception {
+		//an empty middle column is kept, trailing empty ones are dropped
+		assertRows("id\ttranscription\tnote", "1\t\tinaudible\n2\tA dog ran.\t\n3\t\t\n\n4\tBirds fly.\n");
+	}
+
+	@Test
+	public void multiByteCharacters() throws Exception {
+		assertRows("id\ttranscription", "1\tÉl está aquí.\n2\t他们喜欢读书。\n3\tnaïve café 😀\n");
+	}
+
+	@Test
+	public void headingOnly() throws Exception {
+		MappedTsvReader reader = new MappedTsvReader(write("id\ttranscription\n"), true);
+		assertEquals("id\ttranscription", reader.getHeading());
+		assertTrue(reader.split(4, executor).isEmpty());
+	}
+
+	@Test
+	public void emptyFile() throws Exception {
+		MappedTsvReader reader = new MappedTsvReader(write(""), true);
+		assertNull(reader.getHeading());
+		assertTrue(reader.split(4, executor).isEmpty());
+	}
+
+}
@@ -0,0 +1,130 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SilenceSplitterTest {
+
+	//16 kHz mono 16-bit
+	static final int BYTES_PER_SECOND = 32000;
+
+	@TempDir
+	Path folder;
+
+	/**
+	 * A tone of the given length with silent stretches, given as start and
+	 * end in milliseconds.
+	 */
+	static short[] toneWithSilences(long millis, long[][] silences) {
+		short[] samples = new short[(int) (millis * 16)];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) (8000 * Math.sin(i * 0.1));
+		}
+		for (long[] silence : silences) {
+			for (int i = (int) (silence[0] * 16); i < silence[1] * 16; i++) {
+				samples[i] = 0;
+			}
+		}
+		return samples;
+	}
+
+	@Test
+	public void cutsInSilences() throws IOException {
+		long[][] silences = { { 7000, 7500 }, { 15000, 15500 }, { 22000, 22500 } };
+		short[] samples = toneWithSilences(30000, silences);
+		File file = WavFileTest.writeWav(folder.resolve("pauses.wav").toFile(), samples.length * 2, samples);
+		WavFile wav = WavFile.open(file);
+		long maxChunkBytes = 10 * BYTES_PER_SECOND;
+
+		List<AudioChunk> chunks = new SilenceSplitter(maxChunkBytes).split(wav);
+
+		assertEquals(silences.length + 1, chunks.size());
+		assertCovers(wav, chunks, maxChunkBytes);
+		for (int i = 1; i < chunks.size(); i++) {
+			long cut = chunks.get(i).getStartMillis();
+			assertTrue(cut >= silences[i - 1][0] && cut <= silences[i - 1][1],
+					"cut at " + cut + " ms is outside the silence at " + silences[i - 1][0] + " ms");
+		}
+	}
+
+	@Test
+	public void forcedCutsWithoutSilence() throws IOException {
+		short[] samples = toneWithSilences(25000, new long[0][]);
+		File file = WavFileTest.writeWav(folder.resolve("tone.wav").toFile(), samples.length * 2, samples);
+		WavFile wav = WavFile.open(file);
+		//not a whole number of frames
+		long maxChunkBytes = 10 * BYTES_PER_SECOND + 1000;
+
+		List<AudioChunk> chunks = new SilenceSplitter(maxChunkBytes).split(wav);
+
+		assertTrue(chunks.size() >= 3, "got " + chunks.size() + " chunks");
+		assertCovers(wav, chunks, maxChunkBytes);
+	}
+
+	@Test
+	public void lastFrameIsPartial() throws IOException {
+		//a few samples more than a whole number of frames
+		short[] samples = toneWithSilences(21000, new long[][] { { 9000, 9500 } });
+		short[] longer = new short[samples.length + 3];
+		System.arraycopy(samples, 0, longer, 0, samples.length);
+		File file = WavFileTest.writeWav(folder.resolve("partial.wav").toFile(), longer.length * 2, longer);
+		WavFile wav = WavFile.open(file);
+		long maxChunkBytes = 10 * BYTES_PER_SECOND;
+
+		List<AudioChunk> chunks = new SilenceSplitter(maxChunkBytes).split(wav);
+
+		assertCovers(wav, chunks, maxChunkBytes);
+	}
+
+	@Test
+	public void shortRecordingIsOneChunk() throws IOException {
+		WavFile wav = WavFile.open(WavFileTest.writeWav(folder.resolve("short.wav").toFile(), 64000, 64000));
+
+		List<AudioChunk> chunks = new SilenceSplitter(10 * BYTES_PER_SECOND).split(wav);
+
+		assertEquals(1, chunks.size());
+		assertEquals(0, chunks.get(0).getDataOffset());
+		assertEquals(64000, chunks.get(0).getDataLength());
+		assertEquals(0, chunks.get(0).getStartMillis());
+		assertEquals(2000, chunks.get(0).getEndMillis());
+	}
+
+	@Test
+	public void chunkSmallerThanFrames() throws IOException {
+		WavFile wav = WavFile.open(WavFileTest.writeWav(folder.resolve("a.wav").toFile(), 64000, 64000));
+		assertThrows(IllegalArgumentException.class, () -> new SilenceSplitter(1000).split(wav));
+	}
+
+	/**
+	 * The chunks are numbered in order, none is larger than the chunk size,
+	 * and together they cover the audio data without gaps or overlaps, on
+	 * sample boundaries. Their times match their offsets.
+	 */
+	private static void assertCovers(WavFile wav, List<AudioChunk> chunks, long maxChunkBytes) {
+		long offset = 0;
+		for (int i = 0; i < chunks.size(); i++) {
+			AudioChunk chunk = chunks.get(i);
+			assertEquals(i, chunk.getIndex());
+			assertEquals(offset, chunk.getDataOffset(), "gap or overlap before chunk " + i);
+			assertEquals(0, chunk.getDataOffset() % wav.getBlockAlign());
+			assertTrue(chunk.getDataLength() > 0);
+			assertTrue(chunk.getDataLength() <= maxChunkBytes,
+					"chunk " + i + " has " + chunk.getDataLength() + " bytes");
+			assertEquals(chunk.getDataOffset() * 1000 / BYTES_PER_SECOND, chunk.getStartMillis());
+			assertEquals((chunk.getDataOffset() + chunk.getDataLength()) * 1000 / BYTES_PER_SECOND,
+					chunk.getEndMillis());
+			offset += chunk.getDataLength();
+		}
+		assertEquals(wav.getDataLength(), offset);
+	}
+
+}
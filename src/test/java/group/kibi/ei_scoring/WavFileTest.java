@@ -0,0 +1,98 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WavFileTest {
+
+	@TempDir
+	Path folder;
+
+	/**
+	 * Write a 16 kHz mono 16-bit WAV file whose header declares the given data
+	 * size, followed by the given number of bytes of audio data.
+	 */
+	static File writeWav(File file, long declaredDataLength, int dataLength) throws IOException {
+		short[] samples = new short[dataLength / 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) (8000 * Math.sin(i * 0.1));
+		}
+		return writeWav(file, declaredDataLength, samples);
+	}
+
+	/**
+	 * Write a 16 kHz mono 16-bit WAV file with the given samples, whose header
+	 * declares the given data size.
+	 */
+	static File writeWav(File file, long declaredDataLength, short[] samples) throws IOException {
+		int dataLength = samples.length * 2;
+		ByteBuffer wav = ByteBuffer.allocate(WavFile.HEADER_SIZE + dataLength).order(ByteOrder.LITTLE_ENDIAN);
+		wav.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+		wav.putInt(36 + dataLength);
+		wav.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+		wav.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+		wav.putInt(16);
+		wav.putShort((short) WavFile.FORMAT_PCM);
+		wav.putShort((short) 1);
+		wav.putInt(16000);
+		wav.putInt(32000);
+		wav.putShort((short) 2);
+		wav.putShort((short) 16);
+		wav.put("data".getBytes(StandardCharsets.US_ASCII));
+		wav.putInt((int) declaredDataLength);
+		for (short sample : samples) {
+			wav.putShort(sample);
+		}
+		Files.write(file.toPath(), wav.array());
+		return file;
+	}
+
+	@Test
+	public void declaredLength() throws IOException {
+		WavFile wav = WavFile.open(writeWav(folder.resolve("a.wav").toFile(), 32000, 32000));
+		assertEquals(32000, wav.getDataLength());
+		assertEquals(1000, wav.getDurationMillis());
+		assertFalse(wav.isTruncated());
+	}
+
+	@Test
+	public void streamingRecorderLength() throws IOException {
+		File file = writeWav(folder.resolve("streamed.wav").toFile(), 0xFFFFFFFFL, 32000);
+		WavFile wav = WavFile.open(file);
+		assertEquals(32000, wav.getDataLength());
+		assertFalse(wav.isTruncated());
+		assertTrue(AudioIndex.check(file).isValid(), AudioIndex.check(file).getProblem());
+	}
+
+	@Test
+	public void zeroLength() throws IOException {
+		//an unfinished header; whatever follows it is not taken for audio
+		File file = writeWav(folder.resolve("unfinished.wav").toFile(), 0, 32000);
+		WavFile wav = WavFile.open(file);
+		assertEquals(0, wav.getDataLength());
+		assertFalse(AudioIndex.check(file).isValid());
+		assertEquals("no audio data", AudioIndex.check(file).getProblem());
+	}
+
+	@Test
+	public void truncated() throws IOException {
+		File file = writeWav(folder.resolve("truncated.wav").toFile(), 64000, 32000);
+		WavFile wav = WavFile.open(file);
+		assertEquals(32000, wav.getDataLength());
+		assertTrue(wav.isTruncated());
+		assertFalse(AudioIndex.check(file).isValid());
+	}
+
+}
@@ -0,0 +1,201 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Request;
+
+/**
+ * The race between a request and its hedge, against a local server that
+ * answers the requests it gets with the configured delays and status codes.
+ */
+public class WhisperTranscriberHedgingTest {
+
+	static final long BYTES = 100 * 1024;
+
+	//the hedge is sent after this delay
+	static final long HEDGE_DELAY_MILLIS = 50;
+
+	//long enough that a request this slow can only lose
+	static final long SLOW_MILLIS = 5000;
+
+	/**
+	 * How the server answers one request.
+	 */
+	static class Answer {
+		final long delayMillis;
+		final int code;
+		final String body;
+
+		Answer(long delayMillis, int code, String body) {
+			this.delayMillis = delayMillis;
+			this.code = code;
+			this.body = body;
+		}
+	}
+
+	HttpServer server;
+	ExecutorService serverThreads = Executors.newCachedThreadPool();
+
+	//the answers to the requests in the order they arrive
+	List<Answer> answers = Collections.synchronizedList(new ArrayList<>());
+	AtomicInteger received = new AtomicInteger();
+
+	WhisperTranscriber transcriber;
+
+	//calls that failed on the client, e.g. because they were cancelled
+	List<Call> failedCalls = Collections.synchronizedList(new ArrayList<>());
+	CountDownLatch callFailed = new CountDownLatch(1);
+
+	@BeforeEach
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			Answer answer = answers.get(received.getAndIncrement());
+			try {
+				Thread.sleep(answer.delayMillis);
+				byte[] body = answer.body.getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(answer.code, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				exchange.close();
+			}
+		});
+		server.setExecutor(serverThreads);
+		server.start();
+
+		transcriber = new WhisperTranscriber("test");
+		transcriber.mOkHttpClient = transcriber.mOkHttpClient.newBuilder().eventListener(new EventListener() {
+			@Override
+			public void callFailed(Call call, IOException e) {
+				failedCalls.add(call);
+				callFailed.countDown();
+			}
+		}).build();
+	}
+
+	@AfterEach
+	public void stop() {
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	/**
+	 * A hedging policy that has seen enough latencies of {@link #BYTES} to
+	 * hedge after {@link #HEDGE_DELAY_MILLIS}.
+	 */
+	static HedgingPolicy policy(double budgetPercent) {
+		HedgingPolicy policy = new HedgingPolicy(50, budgetPercent);
+		for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+			policy.recordLatency(HEDGE_DELAY_MILLIS, BYTES);
+		}
+		return policy;
+	}
+
+	Request request() {
+		return new Request.Builder().url("http://127.0.0.1:" + server.getAddress().getPort() + "/").build();
+	}
+
+	@Test
+	public void hedgeWinsAndFirstRequestIsCancelled() throws Exception {
+		transcriber.setHedgingPolicy(policy(100));
+		answers.add(new Answer(SLOW_MILLIS, 200, "first"));
+		answers.add(new Answer(0, 200, "hedge"));
+
+		long start = System.nanoTime();
+		assertEquals("hedge", transcriber.execute(request(), BYTES));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SLOW_MILLIS);
+
+		//the first request fails on the client long before the server answers
+		assertTrue(callFailed.await(SLOW_MILLIS / 2, TimeUnit.MILLISECONDS));
+		assertTrue(failedCalls.get(0).isCanceled());
+		assertEquals(1, transcriber.getStats().getHedgesWon());
+		assertEquals(1, transcriber.getStats().getCancelledFirstRequests());
+	}
+
+	@Test
+	public void firstRequestWinsAndHedgeIsCancelled() throws Exception {
+		transcriber.setHedgingPolicy(policy(100));
+		answers.add(new Answer(500, 200, "first"));
+		answers.add(new Answer(SLOW_MILLIS, 200, "hedge"));
+
+		assertEquals("first", transcriber.execute(request(), BYTES));
+
+		assertTrue(callFailed.await(SLOW_MILLIS / 2, TimeUnit.MILLISECONDS));
+		assertTrue(failedCalls.get(0).isCanceled());
+		assertEquals(1, transcriber.getStats().getHedges());
+		assertEquals(0, transcriber.getStats().getHedgesWon());
+		assertEquals(0, transcriber.getStats().getCancelledFirstRequests());
+	}
+
+	@Test
+	public void hedgeSucceedsAfterFirstRequestFailed() throws Exception {
+		transcriber.setHedgingPolicy(policy(100));
+		answers.add(new Answer(200, 500, "error"));
+		answers.add(new Answer(600, 200, "hedge"));
+
+		assertEquals("hedge", transcriber.execute(request(), BYTES));
+		assertEquals(1, transcriber.getStats().getHedgesWon());
+		//a failed first request has no latency, not even a lower bound
+		assertEquals(0, transcriber.getStats().getCancelledFirstRequests());
+	}
+
+	@Test
+	public void failsOnlyAfterAllRequestsFailed() throws Exception {
+		transcriber.setHedgingPolicy(policy(100));
+		answers.add(new Answer(200, 500, "error"));
+		answers.add(new Answer(800, 500, "error"));
+
+		long start = System.nanoTime();
+		assertThrows(IOException.class, () -> transcriber.execute(request(), BYTES));
+		//the hedge was sent after the hedge delay and answered after its own
+		//delay, so the failure of the first request alone didn't end the wait
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= HEDGE_DELAY_MILLIS + 800);
+		assertEquals(2, received.get());
+	}
+
+	@Test
+	public void hedgesStayWithinBudget() throws Exception {
+		//one hedge per two requests
+		transcriber.setHedgingPolicy(policy(50));
+		answers.add(new Answer(300, 200, "first"));
+		answers.add(new Answer(300, 200, "second"));
+		answers.add(new Answer(0, 200, "hedge"));
+
+		//half a hedge is not enough for one
+		assertEquals("first", transcriber.execute(request(), BYTES));
+		assertEquals(0, transcriber.getStats().getHedges());
+		assertEquals(1, received.get());
+
+		assertEquals("hedge", transcriber.execute(request(), BYTES));
+		assertEquals(1, transcriber.getStats().getHedges());
+		assertEquals(3, received.get());
+	}
+
+}
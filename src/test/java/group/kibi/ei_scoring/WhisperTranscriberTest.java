@@ -0,0 +1,91 @@
+package group.kibi.ei_scoring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import group.kibi.ei_scoring.WhisperTranscriber.Segment;
+
+public class WhisperTranscriberTest {
+
+	@TempDir
+	Path folder;
+
+	//three 1 second clips, at 0-1 s, 3-4 s and 6-7 s of the pack
+	AudioPack pack;
+
+	@BeforeEach
+	public void createPack() throws IOException {
+		List<File> files = new ArrayList<>();
+		for (String name : Arrays.asList("a.wav", "b.wav", "c.wav")) {
+			files.add(WavFileTest.writeWav(folder.resolve(name).toFile(), 32000, 32000));
+		}
+		List<AudioPack> packs = new ClipPacker(WhisperTranscriber.DEFAULT_MAX_CHUNK_BYTES, 10)
+				.pack(AudioIndex.build(files).getValid());
+		assertEquals(1, packs.size());
+		pack = packs.get(0);
+	}
+
+	@Test
+	public void segmentsInsideClips() {
+		List<AudioPack.Clip> unclear = WhisperTranscriber.assignSegments(pack, Arrays.asList(
+				new Segment(0.0, 1.0, " first"), new Segment(3.1, 3.5, " second"), new Segment(3.5, 4.2, " part"),
+				new Segment(6.0, 7.0, " third")));
+		assertTrue(unclear.isEmpty());
+		assertEquals("first", transcription(0));
+		assertEquals("second part", transcription(1));
+		assertEquals("third", transcription(2));
+	}
+
+	@Test
+	public void segmentInGapIsDropped() {
+		List<AudioPack.Clip> unclear = WhisperTranscriber.assignSegments(pack, Arrays.asList(
+				new Segment(0.0, 1.0, "first"), new Segment(1.3, 2.7, "Thank you."), new Segment(3.0, 4.0, "second"),
+				new Segment(6.0, 7.0, "third"), new Segment(7.2, 8.0, "Thank you.")));
+		assertTrue(unclear.isEmpty());
+		assertEquals("first", transcription(0));
+		assertEquals("second", transcription(1));
+		assertEquals("third", transcription(2));
+	}
+
+	@Test
+	public void shortSegmentGoesToTheClipItOverlaps() {
+		WhisperTranscriber.assignSegments(pack, Arrays.asList(new Segment(0.9, 1.5, "yes")));
+		assertEquals("yes", transcription(0));
+		assertEquals("", transcription(1));
+	}
+
+	@Test
+	public void segmentSpanningTwoClips() {
+		List<AudioPack.Clip> unclear = WhisperTranscriber.assignSegments(pack, Arrays.asList(
+				new Segment(0.0, 3.8, "first and second"), new Segment(6.0, 7.0, "third")));
+		assertEquals(Arrays.asList(pack.getClips().get(0), pack.getClips().get(1)), unclear);
+		assertNull(transcription(0));
+		assertNull(transcription(1));
+		assertEquals("third", transcription(2));
+	}
+
+	@Test
+	public void noSegments() {
+		assertEquals(pack.getClips(), WhisperTranscriber.assignSegments(pack, null));
+		for (int i = 0; i < 3; i++) {
+			assertNull(transcription(i));
+		}
+	}
+
+	private String transcription(int clip) {
+		return pack.getClips().get(clip).getTranscription();
+	}
+
+}
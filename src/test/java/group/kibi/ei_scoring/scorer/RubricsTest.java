@@ -0,0 +1,22 @@
+package group.kibi.ei_scoring.scorer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class RubricsTest {
+
+	@Test
+	public void rubricsOfOneItem() {
+		ScoringEngine engine = Rubrics.createEngine(Rubrics.THIRD_PERSON, Rubrics.THIRD_PERSON_SCALE_2);
+		assertEquals(2, engine.getScorers().size());
+	}
+
+	@Test
+	public void rubricsOfDifferentItems() {
+		assertThrows(IllegalArgumentException.class,
+				() -> Rubrics.createEngine(Rubrics.THIRD_PERSON, Rubrics.BE_PASSIVE_210));
+	}
+
+}
@@ -0,0 +1,287 @@
+package group.kibi.ei_scoring.scorer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs every configured rubric over the bundled datasets and checks the scores
+ * against expected scores: the gold scores in src/test/resources/gold where
+ * there are any, and otherwise a reviewed snapshot of the rubric's scores in
+ * src/test/resources/snapshots. The expected scores are kept apart from
+ * src/main/resources/data, where the demos write their scores.
+ * For each rubric it reports the accuracy, Cohen's kappa and the confusion
+ * matrix, and the throughput in responses per second. A rubric fails when the
+ * agreement or the throughput drops below the thresholds, so changes to the
+ * scorers can't silently change the scores.
+ *
+ * The thresholds can be changed with the system properties
+ * regression.minAccuracy, regression.minKappa and regression.minThroughput.
+ * The test loads the CoreNLP models and scores every dataset several times,
+ * so it is tagged; skip it with -DexcludedGroups=regression.
+ *
+ * When a scorer is changed on purpose, regenerate its snapshot with
+ * ScoringEngine (e.g. ScoringEngine 3rd_person 3rd_person_id.tsv
+ * scores_3rd_person.tsv 1), review the changed scores and commit the snapshot.
+ */
+@Tag("regression")
+public class ScorerRegressionTest {
+
+	// By default the scores have to match the expected scores exactly. The
+	// throughput threshold is deliberately low, so it only catches large
+	// slowdowns on slow machines; tighten it for the machine the suite runs on.
+	static final double DEFAULT_MIN_ACCURACY = 1.0;
+	static final double DEFAULT_MIN_KAPPA = 1.0;
+	static final double DEFAULT_MIN_THROUGHPUT = 10;
+
+	static Logger logger = LoggerFactory.getLogger(ScorerRegressionTest.class);
+
+	/**
+	 * A rubric together with the dataset it is run on and the expected scores
+	 * for that dataset.
+	 */
+	static class RegressionCase {
+		String rubric;
+		String dataset;
+
+		//a resource path, either gold scores or a snapshot
+		String expectedScores;
+
+		RegressionCase(String rubric, String dataset, String expectedScores) {
+			this.rubric = rubric;
+			this.dataset = dataset;
+			this.expectedScores = expectedScores;
+		}
+
+		@Override
+		public String toString() {
+			return rubric;
+		}
+	}
+
+	static List<RegressionCase> cases() {
+		return List.of(
+				new RegressionCase(Rubrics.BE_PASSIVE_210, "be_passive210_id.tsv", "gold/scores_be_passive210.tsv"),
+				new RegressionCase(Rubrics.THIRD_PERSON, "3rd_person_id.tsv", "snapshots/scores_3rd_person.tsv"),
+				new RegressionCase(Rubrics.BE_PASSIVE_210_SCALE_4, "be_passive210_id.tsv",
+						"snapshots/scores_be_passive210_scale4.tsv"),
+				new RegressionCase(Rubrics.THIRD_PERSON_SCALE_2, "3rd_person_id.tsv",
+						"snapshots/scores_3rd_person_scale2.tsv"),
+				new RegressionCase(Rubrics.BE_PASSIVE_210_ACCURACY, "be_passive210_id.tsv",
+						"snapshots/scores_be_passive210_accuracy.tsv"),
+				new RegressionCase(Rubrics.THIRD_PERSON_ACCURACY, "3rd_person_id.tsv",
+						"snapshots/scores_3rd_person_accuracy.tsv"));
+	}
+
+	/**
+	 * The outcome of running one rubric over its dataset.
+	 */
+	static class Result {
+		String rubric;
+		int responses;
+		int errors;
+		long nanos;
+
+		//confusion matrix indexed by expected score, then by predicted score
+		int[][] confusion;
+
+		double getThroughput() {
+			return nanos == 0 ? 0 : responses / (nanos / 1e9);
+		}
+
+		int getCompared() {
+			int compared = 0;
+			for (int[] row : confusion) {
+				for (int count : row) {
+					compared += count;
+				}
+			}
+			return compared;
+		}
+
+		double getAccuracy() {
+			int agreed = 0;
+			for (int i = 0; i < confusion.length; i++) {
+				agreed += confusion[i][i];
+			}
+			//responses the scorer failed on count as disagreements
+			int total = getCompared() + errors;
+			return total == 0 ? 0 : (double) agreed / total;
+		}
+
+		/**
+		 * Cohen's kappa: the agreement between gold and predicted scores,
+		 * corrected for the agreement expected by chance given how often each
+		 * score occurs in either.
+		 */
+		double getKappa() {
+			int total = getCompared();
+			if (total == 0) {
+				return 0;
+			}
+			double observed = 0;
+			double expected = 0;
+			for (int i = 0; i < confusion.length; i++) {
+				int goldCount = 0;
+				int predictedCount = 0;
+				for (int j = 0; j < confusion.length; j++) {
+					goldCount += confusion[i][j];
+					predictedCount += confusion[j][i];
+				}
+				observed += confusion[i][i];
+				expected += (double) goldCount * predictedCount;
+			}
+			observed /= total;
+			expected /= (double) total * total;
+			if (expected == 1) {
+				//only one score occurs at all, so kappa is undefined
+				return observed == 1 ? 1 : 0;
+			}
+			return (observed - expected) / (1 - expected);
+		}
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("cases")
+	public void scoresMatchExpectedScores(RegressionCase regressionCase) throws IOException, URISyntaxException {
+		Result result = run(regressionCase);
+		assertTrue(report(result, threshold("regression.minAccuracy", DEFAULT_MIN_ACCURACY),
+				threshold("regression.minKappa", DEFAULT_MIN_KAPPA),
+				threshold("regression.minThroughput", DEFAULT_MIN_THROUGHPUT)),
+				"Scorer regression failed for " + regressionCase.rubric + ", see the log for details.");
+	}
+
+	private static double threshold(String property, double defaultValue) {
+		String value = System.getProperty(property);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
+	private static File resource(String path) throws URISyntaxException {
+		URL url = Thread.currentThread().getContextClassLoader().getResource(path);
+		if (url == null) {
+			throw new IllegalStateException("Missing test resource " + path);
+		}
+		return new File(url.toURI());
+	}
+
+	static Result run(RegressionCase regressionCase) throws IOException, URISyntaxException {
+		ScoringEngine engine = Rubrics.createEngine(regressionCase.rubric);
+		List<String[]> rows = readRows(resource("data/" + regressionCase.dataset));
+		List<String[]> goldRows = readRows(resource(regressionCase.expectedScores));
+		if (goldRows.size() != rows.size()) {
+			throw new IOException(String.format("%s has %d responses but %s has %d expected scores.",
+					regressionCase.dataset, rows.size(), regressionCase.expectedScores, goldRows.size()));
+		}
+
+		// Score one response before timing, so that loading the CoreNLP models
+		// isn't counted against the throughput.
+		if (!rows.isEmpty()) {
+			engine.score(rows.get(0)[1]);
+		}
+
+		Result result = new Result();
+		result.rubric = regressionCase.rubric;
+		int[] predicted = new int[rows.size()];
+		long start = System.nanoTime();
+		for (int i = 0; i < rows.size(); i++) {
+			try {
+				predicted[i] = engine.score(rows.get(i)[1])[0];
+			} catch (RuntimeException e) {
+				logger.error(String.format("%s failed on response '%s'", regressionCase.rubric, rows.get(i)[1]), e);
+				predicted[i] = -1;
+				result.errors++;
+			}
+			result.responses++;
+		}
+		result.nanos = System.nanoTime() - start;
+
+		int scores = engine.getScorers().get(0).getMaxScore() + 1;
+		result.confusion = new int[scores][scores];
+		for (int i = 0; i < rows.size(); i++) {
+			String[] goldRow = goldRows.get(i);
+			if (!goldRow[0].equals(rows.get(i)[0])) {
+				throw new IOException(String.format("Row %d of %s has id %s, but the expected score is for id %s.",
+						i + 1, regressionCase.dataset, rows.get(i)[0], goldRow[0]));
+			}
+			if (predicted[i] >= 0) {
+				result.confusion[Integer.parseInt(goldRow[goldRow.length - 1].trim())][predicted[i]]++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Read the rows with a transcription, skipping the heading line.
+	 */
+	static List<String[]> readRows(File file) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			reader.readLine();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t");
+				if (columns.length > 1) {
+					rows.add(columns);
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Log the result of one rubric and check it against the thresholds.
+	 * @return whether the rubric passed
+	 */
+	static boolean report(Result result, double minAccuracy, double minKappa, double minThroughput) {
+		boolean passed = true;
+		logger.info("Rubric {}: {} responses, {} errors, {} responses/sec", result.rubric, result.responses,
+				result.errors, String.format("%.1f", result.getThroughput()));
+		if (result.errors > 0) {
+			logger.error("\t{} responses could not be scored.", result.errors);
+			passed = false;
+		}
+		if (result.getThroughput() < minThroughput) {
+			logger.error("\tThroughput below threshold of {} responses/sec.", minThroughput);
+			passed = false;
+		}
+
+		logger.info("\tAccuracy: {}, Cohen's kappa: {}", String.format("%.4f", result.getAccuracy()),
+				String.format("%.4f", result.getKappa()));
+		StringBuilder matrix = new StringBuilder("\tConfusion matrix (rows: expected, columns: predicted)\n\t");
+		for (int j = 0; j < result.confusion.length; j++) {
+			matrix.append('\t').append(j);
+		}
+		for (int i = 0; i < result.confusion.length; i++) {
+			matrix.append("\n\t").append(i);
+			for (int j = 0; j < result.confusion.length; j++) {
+				matrix.append('\t').append(result.confusion[i][j]);
+			}
+		}
+		logger.info(matrix.toString());
+
+		if (result.getAccuracy() < minAccuracy) {
+			logger.error("\tAccuracy below threshold of {}.", minAccuracy);
+			passed = false;
+		}
+		if (result.getKappa() < minKappa) {
+			logger.error("\tCohen's kappa below threshold of {}.", minKappa);
+			passed = false;
+		}
+		return passed;
+	}
+
+}
@@ -0,0 +1,94 @@
+package group.kibi.ei_scoring.shard;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import group.kibi.ei_scoring.scorer.Rubrics;
+import group.kibi.ei_scoring.scorer.ScoringEngine;
+
+public class ShardCoordinatorTest {
+
+	//enough responses that every shard gets some, few enough that the
+	//workers spend most of their time loading CoreNLP
+	static final int RESPONSES = 30;
+
+	@TempDir
+	Path folder;
+
+	private static File resource(String path) throws URISyntaxException {
+		URL url = Thread.currentThread().getContextClassLoader().getResource(path);
+		if (url == null) {
+			throw new IllegalStateException("Missing test resource " + path);
+		}
+		return new File(url.toURI());
+	}
+
+	/**
+	 * The heading and the first responses of a dataset, and a response without
+	 * a transcription, which is not scored.
+	 */
+	File responses() throws IOException, URISyntaxException {
+		List<String> lines = Files.readAllLines(resource("data/be_passive210_id.tsv").toPath(), StandardCharsets.UTF_8);
+		List<String> subset = new ArrayList<>(lines.subList(0, RESPONSES + 1));
+		subset.add(2, "99\t");
+		File file = folder.resolve("responses.tsv").toFile();
+		Files.write(file.toPath(), subset, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	@Test
+	public void shardedScoresEqualSingleProcess() throws Exception {
+		File responses = responses();
+		String rubrics = Rubrics.BE_PASSIVE_210 + "," + Rubrics.BE_PASSIVE_210_ACCURACY;
+
+		ScoringEngine engine = Rubrics.createEngine(rubrics.split(","));
+		File expectedScores = folder.resolve("expected_scores.tsv").toFile();
+		File expectedSummary = folder.resolve("expected_summary.tsv").toFile();
+		ScoringEngine.writeReport(engine.scoreFile(responses, expectedScores), expectedSummary);
+
+		File resultsFolder = folder.resolve("results").toFile();
+		resultsFolder.mkdirs();
+		File scores = new ShardCoordinator(3).score(rubrics, responses, resultsFolder);
+		File summary = new File(resultsFolder, scores.getName().replaceFirst("^scores_", "summary_"));
+
+		assertEquals(Files.readAllLines(expectedScores.toPath()), Files.readAllLines(scores.toPath()));
+		assertEquals(Files.readAllLines(expectedSummary.toPath()), Files.readAllLines(summary.toPath()));
+
+		//the shard files are gone after a successful run
+		String[] left = resultsFolder.list((dir, name) -> name.startsWith("shards_"));
+		assertEquals(0, left.length);
+	}
+
+	@Test
+	public void keepWorkFolder() throws Exception {
+		File resultsFolder = folder.resolve("results").toFile();
+		resultsFolder.mkdirs();
+		ShardCoordinator coordinator = new ShardCoordinator(2);
+		coordinator.setKeepWorkFolder(true);
+		coordinator.score(Rubrics.THIRD_PERSON, emptyResponses(), resultsFolder);
+
+		File[] workFolders = resultsFolder.listFiles((dir, name) -> name.startsWith("shards_"));
+		assertEquals(1, workFolders.length);
+		assertTrue(new File(workFolders[0], "shard_0.log").exists());
+	}
+
+	File emptyResponses() throws IOException {
+		File file = folder.resolve("empty.tsv").toFile();
+		Files.write(file.toPath(), "id\ttranscription\n".getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+}